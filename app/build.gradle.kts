@@ -55,3 +55,11 @@ tasks.named<JavaExec>("run") {
     standardInput = System.`in`
 }
 
+// Mixed-workload load generator against the in-memory database, for example:
+// ./gradlew loadTest --args="--clients 32 --tables 4 --duration 20 --rate 2000"
+tasks.register<JavaExec>("loadTest") {
+    group = "application"
+    description = "Runs LoadGenerator against in-memory H2 and prints a latency report."
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("LoadGenerator")
+}
@@ -1,4 +1,5 @@
 import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
 
@@ -10,6 +11,11 @@ import java.io.IOException;
  * The database is in-memory, so, all data will be erased after closing this app.
  * The tables' schema is: | BOOK_ID | BOOK_NAME | BOOK_STOCK |
  * The DBMS used is H2.
+ * Start with "--replica" to keep in-memory copies of the tables for fast sorted reads.
+ * Start with "--batch <file>" to execute a script of commands instead of the menus ("-" reads the script from stdin),
+ *  see BatchRunner for the commands. "--batch-size <n>" sets the number of commands per transaction,
+ *  "--stop-on-error" skips the rest of the script after the first failed command.
+ * Start with "--cache-size <n>" to change the number of books kept in the book cache, 0 turns it off.
  */
 
 
@@ -20,17 +26,84 @@ public class App {
     public static Database database; //single database
 
     public static void main(String[] args) {
-        try (BufferedReader br = new BufferedReader(new InputStreamReader(System.in))){
+        boolean replica = false;
+        String batchFile = null;
+        int batchSize = BatchRunner.DEFAULT_BATCH_SIZE;
+        boolean stopOnError = false;
+        int cacheSize = Database.DEFAULT_CACHE_SIZE;
+        try {
+            for (int i = 0; i<args.length; i++){
+                if (args[i].equals("--replica")){
+                    replica = true;
+                } else if (args[i].equals("--batch")){
+                    batchFile = optionValue(args,i++);
+                } else if (args[i].equals("--batch-size")){
+                    batchSize = integerOptionValue(args,i++,1);
+                } else if (args[i].equals("--stop-on-error")){
+                    stopOnError = true;
+                } else if (args[i].equals("--cache-size")){
+                    cacheSize = integerOptionValue(args,i++,0);
+                } else {
+                    throw WrongInputException.withMessage("unknown argument "+args[i]);
+                }
+            }
+        } catch (WrongInputException e){
+            System.err.println(e.getMessage());
+            System.exit(2);
+        }
+        if (batchFile!=null){
+            //a script can run thousands of statements - don't print every one of them,
+            // and send the updates of a group to H2 in JDBC batches
+            System.setProperty("hibernate.show_sql","false");
+            System.setProperty("hibernate.jdbc.batch_size",String.valueOf(BatchRunner.JDBC_BATCH_SIZE));
+            System.setProperty("hibernate.order_updates","true");
+        }
+        int failed = 0;
+        try (BufferedReader br = new BufferedReader(batchFile==null || batchFile.equals("-")
+                ? new InputStreamReader(System.in) : new FileReader(batchFile))){
             database = Database.getDatabase(); //create the database, if none exist
             if (database!=null){
-                mainMenuPrompt(br); //start main menu prompt
+                if (replica){
+                    database.enableReplicas();//serve sorted selects from memory
+                }
+                database.setBookCacheSize(cacheSize);
+                if (batchFile!=null){
+                    failed = new BatchRunner(database,batchSize,stopOnError).run(br);
+                } else {
+                    mainMenuPrompt(br); //start main menu prompt
+                }
+                database.closeDatabase();//close the sessionFactory
             }
-            database.closeDatabase();//close the sessionFactory
         } catch (IOException e) {
             System.err.println(e.getMessage());
+            failed = 1;
+        }
+        if (failed>0){
+            System.exit(1);//let the calling script know, that something went wrong
         }
    }
 
+    //the value after the option at index, command line arguments are checked without the prompt messages
+    public static String optionValue(String[] args, int index) throws WrongInputException{
+        if (index+1>=args.length || args[index+1].startsWith("--")){
+            throw WrongInputException.withMessage("missing or invalid value for "+args[index]);
+        }
+        return args[index+1];
+    }
+
+    public static int integerOptionValue(String[] args, int index, int minimum) throws WrongInputException{
+        String value = optionValue(args,index);
+        try {
+            int number = Integer.parseInt(value);
+            if (number>=minimum){
+                return number;
+            }
+        } catch (NumberFormatException e){
+            //reported below
+        }
+        throw WrongInputException.withMessage("missing or invalid value for "+args[index]);
+    }
+
    //main menu method
     public static void mainMenuPrompt(BufferedReader br) {
         String input;
@@ -43,6 +116,7 @@ public class App {
                     "4 - Show selected table name\n"+
                     "5 - Edit current table\n"+
                     "6 - Delete selected table\n"+
+                    "7 - Show book cache statistics\n"+
                     "0 - Quit\n");
             try {
                 input = br.readLine();
@@ -65,6 +139,8 @@ public class App {
                 }
             } else if (input.equals("6")) {
                 database.deleteSelectedTable(); //delete current table
+            } else if (input.equals("7")) {
+                database.showCacheStatistics(); //hits and misses of the book cache for every table
             } else if (input.equals("0")){
                 break; //quit if "0" is the input
             }
@@ -132,12 +208,15 @@ public class App {
      */
     public static void selectEntryPrompt(BufferedReader br) {
         String input = "";
+        String column;
         StringBuilder sb = new StringBuilder();
         while (!input.equalsIgnoreCase("b")){
             System.out.println("Available options:\n"+
                     "1 - Select all - default\n"+ //ordering by id-column
                     "2 - Select all - order by book names\n"+
                     "3 - Select all - order by book stock\n"+
+                    "4 - Select books in a stock range\n"+
+                    "5 - Select top books by stock\n"+
                     "B/b - Go back");
             try {
                 input = br.readLine();
@@ -147,20 +226,32 @@ public class App {
             }
             sb.setLength(0);//flush the string builder
             sb.append(database.getSelectAllQuery()); //append the common part of the query
+            column = "BOOK_ID";
             if (input.equals("1")){
                 sb.append(";"); // if default - just end the query
                                 // if those two below - append the "order by" part and select the order-mode
                                 // ASC/DESC
             } else if (input.equals("2")){
-                selectSortingColumn(br,sb,"BOOK_NAME");
+                column = "BOOK_NAME";
+                selectSortingColumn(br,sb,column);
             } else if (input.equals("3")){
-                selectSortingColumn(br,sb,"BOOK_STOCK");
+                column = "BOOK_STOCK";
+                selectSortingColumn(br,sb,column);
+            } else if (input.equals("4")){
+                selectStockRangePrompt(br);
+                continue;
+            } else if (input.equals("5")){
+                selectTopByStockPrompt(br);
+                continue;
             }
             //if canceled at any point - the query is not valid, but it's an easy check for the semicolon
             if (!sb.toString().endsWith(";")){
                 continue;
             }             
-            database.executeSelectQuery(sb.toString());//execute the constructed query
+            //replica serves the same ordering from memory, if enabled
+            if (!database.selectOrderedFromReplica(column,sb.toString().endsWith(" DESC;"))){
+                database.executeSelectQuery(sb.toString());//execute the constructed query
+            }
         }
     }
 
@@ -192,6 +283,36 @@ public class App {
         }
     }
 
+    //select books with the stock between two values
+    public static void selectStockRangePrompt(BufferedReader br){
+        try {
+            System.out.println("Enter the minimal stock\n"+
+                    "It should be a positive integer\n"+
+                    "0-2147483647");
+            int minStock = checkPositiveInteger(br.readLine());
+            System.out.println("Enter the maximal stock\n"+
+                    "It should be a positive integer\n"+
+                    "0-2147483647");
+            int maxStock = checkPositiveInteger(br.readLine());
+            database.selectInStockRange(minStock,maxStock);
+        } catch (WrongInputException | IOException e){
+            System.err.println(e.getMessage());
+        }
+    }
+
+    //select the given number of books with the highest stock
+    public static void selectTopByStockPrompt(BufferedReader br){
+        try {
+            System.out.println("Enter the number of books to show\n"+
+                    "It should be a positive integer\n"+
+                    "0-2147483647");
+            int count = checkPositiveInteger(br.readLine());
+            database.selectTopByStock(count);
+        } catch (WrongInputException | IOException e){
+            System.err.println(e.getMessage());
+        }
+    }
+
     //delete table row method
     public static void deleteEntryPrompt(BufferedReader br) {
         String input;
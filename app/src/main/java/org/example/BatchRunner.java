@@ -0,0 +1,363 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Non-interactive mode - executes a script of commands instead of prompting the user.
+ * Commands are separated by ';' or new lines, text in double quotes may contain both.
+ *  use <table>              - select a table as current
+ *  create                   - create a new table
+ *  drop                     - delete the selected table
+ *  insert <name> <stock>    - add a book entry
+ *  name <id> <name>         - edit the name of an entry
+ *  stock <id> <stock>       - edit the stock of an entry
+ *  delete <id>              - delete an entry
+ *  select [id|name|stock] [asc|desc] - print the selected table
+ *  commit                   - commit the commands executed so far
+ * Lines starting with '#' are comments.
+ *
+ * Consecutive entry commands (use, insert, name, stock, delete) share one transaction,
+ *  which is committed after batchSize of them. create, drop, select and commit end the transaction first.
+ * A failed command is reported with its line and skipped - the other commands of its transaction still commit.
+ * Except after a database error in a transaction with inserts: it is rolled back as a whole,
+ *  because H2 doesn't give back the ids of rolled back inserts, so repeated inserts would get other ids
+ *  and the commands after them could change other rows.
+ * With stopOnError the commands before the failed one are committed and the rest of the script is skipped,
+ *  a failed commit stops the script too.
+ */
+public class BatchRunner{
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int JDBC_BATCH_SIZE = 50;//statements per JDBC batch, inserts with identity ids are never batched
+
+    private final Database database;
+    private final int batchSize;
+    private final boolean stopOnError;
+
+    private final List<Command> group = new ArrayList<>();//commands in the open transaction
+    private Database.Batch batch;
+    private int executed = 0;
+    private int failed = 0;
+    private int transactions = 0;
+
+    public BatchRunner(Database database, int batchSize, boolean stopOnError){
+        if (batchSize<1){
+            throw new IllegalArgumentException("Batch size should be at least 1");
+        }
+        this.database = database;
+        this.batchSize = batchSize;
+        this.stopOnError = stopOnError;
+    }
+
+    //returns the number of failed commands
+    public int run(BufferedReader br) throws IOException{
+        List<Command> commands = readCommands(br);
+        for (Command command: commands){
+            if (!execute(command) && stopOnError){
+                break;
+            }
+        }
+        commitGroup();
+        System.out.printf("Batch finished: %d commands, %d failed, %d transactions%n",
+            executed,failed,transactions);
+        return failed;
+    }
+
+    //returns false, if the command failed
+    private boolean execute(Command command){
+        executed++;
+        try {
+            String keyword = command.keyword();
+            if (keyword.equals("use") || keyword.equals("insert") || keyword.equals("name")
+                    || keyword.equals("stock") || keyword.equals("delete")){
+                return executeInGroup(command);
+            }
+            //table-level commands and selects must see everything before them
+            boolean committed = commitGroup();
+            if (!committed && stopOnError){
+                return false;
+            }
+            if (keyword.equals("create")){
+                command.expectArguments(0);
+                String tableName = database.addTable();
+                if (tableName==null){
+                    throw WrongInputException.withMessage("table was not created");
+                }
+                System.out.println("Created "+tableName);
+            } else if (keyword.equals("drop")){
+                command.expectArguments(0);
+                if (!database.deleteSelectedTable()){
+                    throw WrongInputException.withMessage("table was not deleted");
+                }
+            } else if (keyword.equals("select")){
+                select(command);
+            } else if (keyword.equals("commit")){
+                return committed;
+            } else {
+                throw WrongInputException.withMessage("unknown command "+keyword);
+            }
+            return true;
+        } catch (WrongInputException | RuntimeException e){
+            report(command,e);
+            return false;
+        }
+    }
+
+    private boolean executeInGroup(Command command){
+        if (batch==null){
+            batch = database.beginBatch();
+        }
+        try {
+            apply(batch,command);
+        } catch (WrongInputException e){
+            //nothing was changed in the session - just skip the command
+            report(command,e);
+            if (stopOnError){
+                commitGroup();
+            }
+            return false;
+        } catch (RuntimeException e){
+            //the session can't be used after a hibernate error, so repeat the earlier commands in a new one
+            report(command,e);
+            replayGroup();
+            if (stopOnError){
+                commitGroup();
+            }
+            return false;
+        }
+        group.add(command);
+        if (group.size()>=batchSize){
+            return commitGroup();
+        }
+        return true;
+    }
+
+    private void apply(Database.Batch batch, Command command) throws WrongInputException{
+        String keyword = command.keyword();
+        if (keyword.equals("use")){
+            command.expectArguments(1);
+            batch.useTable(command.argument(0));
+        } else if (keyword.equals("insert")){
+            command.expectArguments(2);
+            batch.insertEntry(command.argument(0),command.positiveInteger(1));
+        } else if (keyword.equals("name")){
+            command.expectArguments(2);
+            batch.editEntryNameById(command.argument(1),command.positiveInteger(0));
+        } else if (keyword.equals("stock")){
+            command.expectArguments(2);
+            batch.editEntryStockById(command.positiveInteger(1),command.positiveInteger(0));
+        } else if (keyword.equals("delete")){
+            command.expectArguments(1);
+            batch.deleteEntryById(command.positiveInteger(0));
+        }
+    }
+
+    //roll back the open transaction and execute its successful commands once again
+    private void replayGroup(){
+        batch.rollback();
+        batch = null;
+        for (Command command: group){
+            if (command.keyword().equals("insert")){
+                dropGroup("it has inserts, which would get other ids if repeated");
+                return;
+            }
+        }
+        batch = database.beginBatch();
+        try {
+            for (Command command: group){
+                apply(batch,command);
+            }
+        } catch (WrongInputException | RuntimeException e){
+            batch.rollback();
+            batch = null;
+            dropGroup(e.getMessage());
+        }
+    }
+
+    //count the rolled back commands as failed, but keep the table, which the script selected last
+    private void dropGroup(String reason){
+        if (group.isEmpty()){
+            return;
+        }
+        System.out.printf("Transaction rolled back, %d commands from line %d were not applied: %s%n",
+            group.size(),group.get(0).line,reason);
+        for (Command command: group){
+            if (command.keyword().equals("use")){
+                database.setCurrentTable(command.argument(0));
+            }
+        }
+        failed += group.size();
+        group.clear();
+    }
+
+    //returns false, if the commit failed - the commands of the group are counted as failed
+    private boolean commitGroup(){
+        if (batch==null){
+            return true;
+        }
+        boolean committed = true;
+        try {
+            batch.commit();
+            transactions++;
+        } catch (RuntimeException e){
+            System.out.printf("Commit failed, %d commands were not applied: %s%n",group.size(),e.getMessage());
+            failed += group.size();
+            committed = false;
+        }
+        batch = null;
+        group.clear();
+        return committed;
+    }
+
+    private void select(Command command) throws WrongInputException{
+        String column = "BOOK_ID";
+        boolean descending = false;
+        if (command.arguments.size()>2){
+            throw new WrongInputException(command.text);
+        }
+        if (command.arguments.size()>0){
+            String argument = command.argument(0).toLowerCase();
+            if (argument.equals("name")){
+                column = "BOOK_NAME";
+            } else if (argument.equals("stock")){
+                column = "BOOK_STOCK";
+            } else if (!argument.equals("id")){
+                throw new WrongInputException(command.text);
+            }
+        }
+        if (command.arguments.size()>1){
+            String order = command.argument(1).toLowerCase();
+            if (order.equals("desc")){
+                descending = true;
+            } else if (!order.equals("asc")){
+                throw new WrongInputException(command.text);
+            }
+        }
+        if (database.getCurrentTable().isBlank()){
+            throw WrongInputException.withMessage("no table selected");
+        }
+        if (!database.selectOrderedFromReplica(column,descending)){
+            database.executeSelectQuery(database.getSelectAllQuery()+
+                String.format("ORDER BY %s %s;",column,descending ? "DESC" : "ASC"));
+        }
+    }
+
+    private void report(Command command, Exception e){
+        failed++;
+        System.out.printf("Line %d: %s - %s%n",command.line,command.text,e.getMessage());
+    }
+
+    //split the script into commands, keeping the line, where each command starts
+    static List<Command> readCommands(BufferedReader br) throws IOException{
+        List<Command> commands = new ArrayList<>();
+        List<String> words = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        StringBuilder text = new StringBuilder();
+        boolean quoted = false;
+        boolean inWord = false;
+        int startLine = 1;
+        int lineNumber = 0;
+        String line;
+        while ((line = br.readLine())!=null){
+            lineNumber++;
+            if (!quoted && words.isEmpty() && !inWord && line.strip().startsWith("#")){
+                continue;
+            }
+            for (int i = 0; i<=line.length(); i++){
+                //the end of line works like ';' outside of quotes
+                char c = i<line.length() ? line.charAt(i) : '\n';
+                if (quoted){
+                    if (c=='"'){
+                        quoted = false;
+                    } else if (c=='\\' && i+1<line.length()){
+                        word.append(line.charAt(++i));
+                    } else {
+                        word.append(c);
+                    }
+                    text.append(c);
+                    continue;
+                }
+                if (c=='"'){
+                    if (!inWord && words.isEmpty()){
+                        startLine = lineNumber;
+                    }
+                    quoted = true;
+                    inWord = true;
+                    text.append(c);
+                } else if (c==';' || c=='\n'){
+                    if (inWord){
+                        words.add(word.toString());
+                    }
+                    if (!words.isEmpty()){
+                        commands.add(new Command(startLine,text.toString().strip(),words));
+                        words = new ArrayList<>();
+                    }
+                    word.setLength(0);
+                    text.setLength(0);
+                    inWord = false;
+                } else if (Character.isWhitespace(c)){
+                    if (inWord){
+                        words.add(word.toString());
+                        word.setLength(0);
+                        inWord = false;
+                    }
+                    text.append(c);
+                } else {
+                    if (!inWord && words.isEmpty()){
+                        startLine = lineNumber;
+                    }
+                    word.append(c);
+                    inWord = true;
+                    text.append(c);
+                }
+            }
+        }
+        if (quoted){
+            //unterminated quote - keep it as a command, so it is reported instead of silently lost
+            words.add(word.toString());
+            commands.add(new Command(startLine,text.toString().strip(),words));
+        }
+        return commands;
+    }
+
+    static class Command{
+        final int line;
+        final String text;
+        final List<String> arguments;
+        private final String keyword;
+
+        Command(int line, String text, List<String> words){
+            this.line = line;
+            this.text = text;
+            this.keyword = words.get(0).toLowerCase();
+            this.arguments = words.subList(1,words.size());
+        }
+
+        String keyword(){
+            return keyword;
+        }
+
+        String argument(int index){
+            return arguments.get(index);
+        }
+
+        void expectArguments(int count) throws WrongInputException{
+            if (arguments.size()!=count){
+                throw new WrongInputException(text);
+            }
+        }
+
+        //same range as the interactive prompts accept
+        int positiveInteger(int index) throws WrongInputException{
+            try {
+                int value = Integer.parseInt(arguments.get(index));
+                if (value>=0){
+                    return value;
+                }
+            } catch (NumberFormatException e){
+                //reported below
+            }
+            throw new WrongInputException(arguments.get(index));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Second-level cache for books, kept by Database instead of Hibernate.
+ * Hibernate's own cache keys entries by entity and id only, but TableInterceptor maps every
+ *  Books_N table onto the one Book entity - the same BOOK_ID in two tables would be one entry.
+ * Here every table is its own region, entries are keyed by (table, id).
+ * The total number of entries is bounded, the least recently used entry is evicted first.
+ * Books are copied in and out, so cached values are never changed by a session.
+ *
+ * Writers invalidate after commit instead of putting the new value, and a reader may only put
+ *  a value, if nothing in its table was invalidated since it started reading (see generation()),
+ *  so a slow reader can't put back a value, which was already changed.
+ * Generations are kept per region - a change in one table doesn't reject the puts of the others.
+ */
+public final class BookCache{
+    private final int maxEntries;
+    private final LinkedHashMap<Key,Book> entries;
+    private final Map<String,Region> regions = new HashMap<>();
+    private long lastGeneration = 0;//generations of all regions are taken from it, so a new region never repeats an old value
+    private long evictions = 0;
+
+    public BookCache(int maxEntries){
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16,0.75f,true){//access order - the eldest entry is the least recently used
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key,Book> eldest){
+                if (size()>BookCache.this.maxEntries){
+                    evictions++;
+                    region(eldest.getKey().table).size--;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    //returns a copy of the cached book or null
+    public synchronized Book get(String table, long id){
+        Book book = entries.get(new Key(table,id));
+        Region region = region(table);
+        if (book==null){
+            region.misses++;
+            return null;
+        }
+        region.hits++;
+        return copy(book);
+    }
+
+    //for the write path - doesn't count as a hit or a miss and doesn't change the eviction order
+    public synchronized boolean contains(String table, long id){
+        return entries.containsKey(new Key(table,id));//containsKey doesn't count as an access, unlike get
+    }
+
+    //take it before reading from the table and pass it to put()
+    public synchronized long generation(String table){
+        return region(table).generation;
+    }
+
+    public synchronized void put(String table, Book book, long readGeneration){
+        Region region = regions.get(table);//null, if the table was dropped meanwhile
+        if (region==null || readGeneration!=region.generation || maxEntries<=0){
+            return;//something in the table was changed while the book was being read
+        }
+        if (entries.put(new Key(table,book.getId()),copy(book))==null){
+            region.size++;
+        }
+    }
+
+    public synchronized void invalidate(String table, long id){
+        Region region = region(table);
+        region.generation = ++lastGeneration;
+        if (entries.remove(new Key(table,id))!=null){
+            region.size--;
+        }
+    }
+
+    //drop the whole region, when the table is deleted
+    public synchronized void invalidateRegion(String table){
+        Iterator<Key> keys = entries.keySet().iterator();
+        while (keys.hasNext()){
+            if (keys.next().table.equals(table)){
+                keys.remove();
+            }
+        }
+        regions.remove(table);
+    }
+
+    public synchronized void printStatistics(){
+        long hits = 0;
+        long misses = 0;
+        System.out.printf("|%-20s|%-8s|%-10s|%-10s|%-8s|%n","Region","Entries","Hits","Misses","Hit rate");
+        for (Map.Entry<String,Region> entry: new TreeMap<>(regions).entrySet()){
+            Region region = entry.getValue();
+            printRow(entry.getKey(),region.size,region.hits,region.misses);
+            hits += region.hits;
+            misses += region.misses;
+        }
+        printRow("Total",entries.size(),hits,misses);
+        System.out.printf("Max entries: %d, evictions: %d%n",maxEntries,evictions);
+    }
+
+    private void printRow(String name, long size, long hits, long misses){
+        double hitRate = hits+misses==0 ? 0 : 100.0*hits/(hits+misses);
+        System.out.printf("|%-20s|%-8d|%-10d|%-10d|%7.2f%%|%n",name,size,hits,misses,hitRate);
+    }
+
+    private Region region(String table){
+        return regions.computeIfAbsent(table,name -> new Region(++lastGeneration));
+    }
+
+    private static Book copy(Book book){
+        Book copy = new Book(book.getName(),book.getStock());
+        copy.setId(book.getId());
+        return copy;
+    }
+
+    private static final class Region{
+        long generation;//changed on every invalidation in the region
+        long size;
+        long hits;
+        long misses;
+
+        Region(long generation){
+            this.generation = generation;
+        }
+    }
+
+    private static final class Key{
+        final String table;
+        final long id;
+
+        Key(String table, long id){
+            this.table = table;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object other){
+            if (!(other instanceof Key)){
+                return false;
+            }
+            Key key = (Key) other;
+            return id==key.id && table.equals(key.table);
+        }
+
+        @Override
+        public int hashCode(){
+            return 31*table.hashCode()+Long.hashCode(id);
+        }
+    }
+}
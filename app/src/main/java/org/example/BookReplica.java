@@ -0,0 +1,443 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * In-memory read replica of a single Books_N table.
+ * Rows are stored column by column:
+ *  ids    - long[], always sorted ascending (BOOK_ID is an identity column)
+ *  stocks - int[]
+ *  names  - int[] of codes into a dictionary, so repeated names are stored once
+ * Sort permutations for BOOK_NAME and BOOK_STOCK are kept up to date by every write:
+ *  the changed row is removed and inserted again with a binary search, so reads never sort anything.
+ * Dictionary codes are reference counted - a name, which no row uses any more, is removed
+ *  and its code is reused, so renames don't grow the dictionary.
+ * Reads copy the rows they need while the replica is locked and call the visitor after unlocking,
+ *  so a slow visitor (e.g. printing to System.out) doesn't keep writers of the table waiting.
+ * It is a ReentrantLock, not synchronized, so a virtual thread waiting for it doesn't pin its carrier thread.
+ *
+ * Writers of the table apply their changes in commit order with sequence numbers (see nextSequence()),
+ *  nobody holds the replica lock across a commit. A change may become visible a little after its commit,
+ *  when an earlier commit of the same table is still running.
+ */
+public final class BookReplica{
+
+    //callback for reading rows without creating Book objects
+    public interface RowVisitor{
+        void visit(long id, String name, int stock);
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int[] stocks = new int[INITIAL_CAPACITY];
+    private int[] nameCodes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+
+    private String[] dictionary = new String[INITIAL_CAPACITY];
+    private int[] references = new int[INITIAL_CAPACITY];//number of rows using each code
+    private int[] freeCodes = new int[INITIAL_CAPACITY];//codes of removed names, reused first
+    private int freeCount = 0;
+    private int dictionarySize = 0;//codes below it were used at least once
+    private final Map<String,Integer> codes = new HashMap<>();
+
+    //row indexes ordered by (name, id) and by (stock, id), the first size entries are used
+    private int[] byName = new int[INITIAL_CAPACITY];
+    private int[] byStock = new int[INITIAL_CAPACITY];
+    private final RowOrder nameOrder = this::compareByName;
+    private final RowOrder stockOrder = this::compareByStock;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final AtomicLong lastSequence = new AtomicLong();//last number given to a writer
+    private long applied = 0;//changes up to this number are in the replica
+    private final Map<Long,Runnable> waiting = new HashMap<>();//changes, which came before an earlier one
+
+    public int size(){
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Take it after the change was sent to H2 and before the commit, while H2 holds the row locks:
+     *  another writer of the same rows can only send its change after this commit, so it gets a higher number.
+     * Every number must be passed to apply() exactly once, also when the commit fails.
+     */
+    public long nextSequence(){
+        return lastSequence.incrementAndGet();
+    }
+
+    //run the change after the changes with lower numbers, change is null, if the commit failed
+    public void apply(long sequence, Runnable change){
+        lock.lock();
+        try {
+            waiting.put(sequence,change!=null ? change : () -> {});
+            Runnable next;
+            while ((next = waiting.remove(applied+1))!=null){
+                applied++;
+                next.run();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //ids only grow, so a new row is usually appended to the end
+    public void insert(long id, String name, int stock){
+        lock.lock();
+        try {
+            int position = size;
+            if (size>0 && ids[size-1]>=id){
+                //shouldn't happen with identity ids, but keep the id order correct anyway
+                int found = Arrays.binarySearch(ids,0,size,id);
+                if (found>=0){
+                    return;//id is already present
+                }
+                position = -(found+1);
+            }
+            ensureCapacity(size+1);
+            if (position<size){
+                System.arraycopy(ids,position,ids,position+1,size-position);
+                System.arraycopy(stocks,position,stocks,position+1,size-position);
+                System.arraycopy(nameCodes,position,nameCodes,position+1,size-position);
+                renumber(position,1);
+            }
+            ids[position] = id;
+            stocks[position] = stock;
+            nameCodes[position] = encode(name);
+            addToOrder(byStock,size,position,stockOrder);
+            addToOrder(byName,size,position,nameOrder);
+            size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void updateName(long id, String name){
+        lock.lock();
+        try {
+            int row = rowOf(id);
+            if (row>=0){
+                int code = encode(name);
+                int oldCode = nameCodes[row];
+                if (code!=oldCode){
+                    removeFromOrder(byName,size,row,nameOrder);
+                    nameCodes[row] = code;
+                    addToOrder(byName,size-1,row,nameOrder);
+                }
+                release(oldCode);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void updateStock(long id, int stock){
+        lock.lock();
+        try {
+            int row = rowOf(id);
+            if (row>=0 && stocks[row]!=stock){
+                removeFromOrder(byStock,size,row,stockOrder);
+                stocks[row] = stock;
+                addToOrder(byStock,size-1,row,stockOrder);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void delete(long id){
+        lock.lock();
+        try {
+            int row = rowOf(id);
+            if (row>=0){
+                removeFromOrder(byStock,size,row,stockOrder);
+                removeFromOrder(byName,size,row,nameOrder);
+                release(nameCodes[row]);
+                int tail = size-row-1;
+                System.arraycopy(ids,row+1,ids,row,tail);
+                System.arraycopy(stocks,row+1,stocks,row,tail);
+                System.arraycopy(nameCodes,row+1,nameCodes,row,tail);
+                size--;
+                renumber(row+1,-1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //number of names in the dictionary, which are used by at least one row
+    int distinctNames(){
+        lock.lock();
+        try {
+            return codes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //returns false, if there is no row with this id
+    public boolean visitById(long id, RowVisitor visitor){
+        Snapshot rows = new Snapshot(1);
+        lock.lock();
+        try {
+            int row = rowOf(id);
+            if (row<0){
+                return false;
+            }
+            rows.add(row);
+        } finally {
+            lock.unlock();
+        }
+        rows.visit(visitor);
+        return true;
+    }
+
+    /*
+     * Visit all rows ordered by the given column.
+     * Column names are the same as in the table: BOOK_ID, BOOK_NAME, BOOK_STOCK
+     * Equal values keep the id order, like the H2 ordering of an identity column does in practice.
+     */
+    public void forEachOrdered(String column, boolean descending, RowVisitor visitor){
+        Snapshot rows;
+        lock.lock();
+        try {
+            rows = new Snapshot(size);
+            if (column==null || column.equals("BOOK_ID")){
+                if (descending){
+                    for (int i = size-1; i>=0; i--){
+                        rows.add(i);
+                    }
+                } else {
+                    for (int i = 0; i<size; i++){
+                        rows.add(i);
+                    }
+                }
+            } else {
+                int[] order;
+                if (column.equals("BOOK_NAME")){
+                    order = byName;
+                } else if (column.equals("BOOK_STOCK")){
+                    order = byStock;
+                } else {
+                    throw new IllegalArgumentException("Unknown column: "+column);
+                }
+                if (descending){
+                    for (int i = size-1; i>=0; i--){
+                        rows.add(order[i]);
+                    }
+                } else {
+                    for (int i = 0; i<size; i++){
+                        rows.add(order[i]);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        rows.visit(visitor);
+    }
+
+    //visit rows with minStock <= stock <= maxStock in ascending stock order
+    public void forEachInStockRange(int minStock, int maxStock, RowVisitor visitor){
+        Snapshot rows;
+        lock.lock();
+        try {
+            int[] order = byStock;
+            int first = lowerBound(order,minStock);
+            int last = first;
+            while (last<size && stocks[order[last]]<=maxStock){
+                last++;
+            }
+            rows = new Snapshot(last-first);
+            for (int i = first; i<last; i++){
+                rows.add(order[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+        rows.visit(visitor);
+    }
+
+    //visit k rows with the highest stock, highest first
+    public void topByStock(int k, RowVisitor visitor){
+        Snapshot rows;
+        lock.lock();
+        try {
+            int[] order = byStock;
+            int last = Math.max(size-k,0);
+            rows = new Snapshot(size-last);
+            for (int i = size-1; i>=last; i--){
+                rows.add(order[i]);
+            }
+        } finally {
+            lock.unlock();
+        }
+        rows.visit(visitor);
+    }
+
+    private int rowOf(long id){
+        int row = Arrays.binarySearch(ids,0,size,id);
+        return row>=0 ? row : -1;
+    }
+
+    //first position in the stock permutation with stock >= value
+    private int lowerBound(int[] order, int value){
+        int low = 0;
+        int high = size;
+        while (low<high){
+            int middle = (low+high)>>>1;
+            if (stocks[order[middle]]<value){
+                low = middle+1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    //returns the code of the name and counts one more row using it
+    private int encode(String name){
+        Integer existing = codes.get(name);
+        if (existing!=null){
+            references[existing]++;
+            return existing;
+        }
+        int code;
+        if (freeCount>0){
+            code = freeCodes[--freeCount];
+        } else {
+            if (dictionarySize==dictionary.length){
+                dictionary = Arrays.copyOf(dictionary,dictionarySize*2);
+                references = Arrays.copyOf(references,dictionarySize*2);
+                freeCodes = Arrays.copyOf(freeCodes,dictionarySize*2);
+            }
+            code = dictionarySize++;
+        }
+        dictionary[code] = name;
+        references[code] = 1;
+        codes.put(name,code);
+        return code;
+    }
+
+    //one row less uses the code - the name is removed, when nobody uses it
+    private void release(int code){
+        if (--references[code]==0){
+            codes.remove(dictionary[code]);
+            dictionary[code] = null;
+            freeCodes[freeCount++] = code;
+        }
+    }
+
+    private void ensureCapacity(int capacity){
+        if (capacity>ids.length){
+            int newLength = Math.max(capacity,ids.length*2);
+            ids = Arrays.copyOf(ids,newLength);
+            stocks = Arrays.copyOf(stocks,newLength);
+            nameCodes = Arrays.copyOf(nameCodes,newLength);
+            byName = Arrays.copyOf(byName,newLength);
+            byStock = Arrays.copyOf(byStock,newLength);
+        }
+    }
+
+    //insert the row into the first count entries of the order, its values must already be in the columns
+    private void addToOrder(int[] order, int count, int row, RowOrder comparator){
+        int position = -(search(order,count,row,comparator)+1);
+        System.arraycopy(order,position,order,position+1,count-position);
+        order[position] = row;
+    }
+
+    //remove the row from the first count entries of the order, while the columns still have its old values
+    private void removeFromOrder(int[] order, int count, int row, RowOrder comparator){
+        int position = search(order,count,row,comparator);
+        System.arraycopy(order,position+1,order,position,count-position-1);
+    }
+
+    //position of the row in the order, or -(insertion point)-1, like Arrays.binarySearch
+    private int search(int[] order, int count, int row, RowOrder comparator){
+        int low = 0;
+        int high = count-1;
+        while (low<=high){
+            int middle = (low+high)>>>1;
+            int result = comparator.compare(order[middle],row);
+            if (result<0){
+                low = middle+1;
+            } else if (result>0){
+                high = middle-1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low+1);
+    }
+
+    //rows from the given index have moved by delta in the columns, move their indexes in both orders too
+    private void renumber(int from, int delta){
+        for (int i = 0; i<size; i++){
+            if (byName[i]>=from){
+                byName[i] += delta;
+            }
+            if (byStock[i]>=from){
+                byStock[i] += delta;
+            }
+        }
+    }
+
+    //equal values keep the id order
+    private int compareByStock(int first, int second){
+        int result = Integer.compare(stocks[first],stocks[second]);
+        return result!=0 ? result : Long.compare(ids[first],ids[second]);
+    }
+
+    private int compareByName(int first, int second){
+        int result = compareNames(dictionary[nameCodes[first]],dictionary[nameCodes[second]]);
+        return result!=0 ? result : Long.compare(ids[first],ids[second]);
+    }
+
+    //H2 puts NULL values first in ascending order
+    private int compareNames(String first, String second){
+        if (first==null){
+            return second==null ? 0 : -1;
+        }
+        if (second==null){
+            return 1;
+        }
+        return first.compareTo(second);
+    }
+
+    private interface RowOrder{
+        int compare(int firstRow, int secondRow);
+    }
+
+    //values of the rows to visit, copied while the replica is locked
+    private final class Snapshot{
+        private final long[] rowIds;
+        private final String[] rowNames;
+        private final int[] rowStocks;
+        private int count = 0;
+
+        Snapshot(int capacity){
+            rowIds = new long[capacity];
+            rowNames = new String[capacity];
+            rowStocks = new int[capacity];
+        }
+
+        void add(int row){
+            rowIds[count] = ids[row];
+            rowNames[count] = dictionary[nameCodes[row]];
+            rowStocks[count] = stocks[row];
+            count++;
+        }
+
+        void visit(RowVisitor visitor){
+            for (int i = 0; i<count; i++){
+                visitor.visit(rowIds[i],rowNames[i],rowStocks[i]);
+            }
+        }
+    }
+}
@@ -1,6 +1,10 @@
 import java.util.Set;
-import java.util.HashSet;
 import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.hibernate.SessionFactory;
 import org.hibernate.Session;
 import org.hibernate.Transaction;
@@ -9,6 +13,7 @@ import org.hibernate.query.Query;
 import org.hibernate.HibernateException;
 import org.hibernate.Interceptor;
 import org.hibernate.EmptyInterceptor;
+import org.hibernate.ObjectNotFoundException;
 
 public final class Database{
     private  static volatile Database INSTANCE;//single instance - singleton
@@ -16,17 +21,32 @@ public final class Database{
     private final Set<String> tables;//i thought that using set's is more efficient, than lists
     private final SessionFactory sessionFactory;//single sessionFactory
     private final TableInterceptor interceptor;//custom interceptor for switching tables
+    private final Map<String,BookReplica> replicas;//optional in-memory copies of the tables, for fast ordered reads
+    private final BookReplica.RowVisitor rowPrinter = (id,name,stock) ->
+        System.out.printf("| %d | %-10s | %-5d |%n",id,name,stock);
 
-    private int tableIndex = 0;//incrementing index for naming tables
-    private String currentTable;//currently selected table field
+    private volatile boolean replicasEnabled = false;
+
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    private volatile BookCache bookCache = new BookCache(DEFAULT_CACHE_SIZE);//books by table and id, null if turned off
+
+    private final AtomicInteger tableIndex = new AtomicInteger();//incrementing index for naming tables
+    //currently selected table field - each thread selects its own, so concurrent clients don't switch tables for each other
+    private final ThreadLocal<String> currentTable = ThreadLocal.withInitial(() -> "");
 
     private Database() {
         INSTANCE = this;
-        tables = new HashSet<>();
+        tables = ConcurrentHashMap.newKeySet();
+        replicas = new ConcurrentHashMap<>();
         interceptor = new TableInterceptor();
-        currentTable = "";
         Configuration cfg = new Configuration();
         cfg.configure("hibernate.cfg.xml");
+        //-Dhibernate.*=... settings override the file, e.g. the load generator turns show_sql off
+        for (String name: System.getProperties().stringPropertyNames()){
+            if (name.startsWith("hibernate.")){
+                cfg.setProperty(name,System.getProperty(name));
+            }
+        }
         sessionFactory = cfg.buildSessionFactory();
     }
 
@@ -42,24 +62,29 @@ public final class Database{
     //might've been better to throw an exception instead of just printing a message
     public void setCurrentTable(String tableName){
         if (tables.contains(tableName)){
-            currentTable = tableName;
+            currentTable.set(tableName);
         } else {
             System.out.println("No such table available");
         }
     }
 
-    public void addTable(){
+    //returns the name of the created table, or null if nothing was created
+    public String addTable(){
         //DON'T ALLOW USER TO INPUT TABLE NAMES;)
         //just add the incrementing index and set it as our table name
         //might cause trouble for long usage, since the index does not reset when deleting tables
         Session session = sessionFactory.openSession();
         Transaction transaction = session.beginTransaction();
         try {
-            String tableName = "Books_"+tableIndex;
+            String tableName = "Books_"+tableIndex.getAndIncrement();//taken even if creation fails, so two threads never get the same name
             session.createNativeQuery(getCreateTableQuery(tableName), Book.class).executeUpdate();
             session.getTransaction().commit();
+            //the replica must be there before anyone can select the table, or the first inserts would miss it
+            if (replicasEnabled){
+                replicas.put(tableName,new BookReplica());//new table is empty - nothing to load
+            }
             tables.add(tableName);//add to the set
-            tableIndex++;
+            return tableName;
         } catch (RuntimeException e){
             if (transaction!=null){
                 transaction.rollback();
@@ -70,16 +95,24 @@ public final class Database{
                 session.close();
             }
         }
+        return null;
     }
 
-    public void deleteSelectedTable(){
-        if (tables.contains(currentTable)){//maybe an unneccessary check, but prevents from deleting "" table name
+    //returns true, if the table was deleted
+    public boolean deleteSelectedTable(){
+        if (tables.contains(currentTable.get())){//maybe an unneccessary check, but prevents from deleting "" table name
             Session session = sessionFactory.openSession();
             Transaction transaction = session.beginTransaction();
             try {
                 session.createNativeQuery(getDeleteTableQuery(), Book.class).executeUpdate();
                 session.getTransaction().commit();
-                tables.remove(currentTable);
+                tables.remove(currentTable.get());
+                replicas.remove(currentTable.get());
+                BookCache cache = bookCache;
+                if (cache!=null){
+                    cache.invalidateRegion(currentTable.get());
+                }
+                return true;
             } catch (RuntimeException e){
                 if (transaction!=null){
                     transaction.rollback();
@@ -93,16 +126,25 @@ public final class Database{
         } else {
             System.out.println("This table does not exist");
         }
+        return false;
     }
 
-    public void deleteEntryById(int id){
+    //entry methods return true, if the change was committed
+    public boolean deleteEntryById(int id){
         Session session = sessionFactory.withOptions().interceptor(interceptor).openSession();
         Transaction transaction = session.beginTransaction();
         try {
-            Book book = (Book) session.get(Book.class, (long)id);
-            session.delete(book);
-            transaction.commit();
+            if (isCached(id)){
+                //the row is known to exist, so delete it without loading it first
+                executeUpdateById(session,getDeleteByIdQuery(),null,id);
+            } else {
+                Book book = (Book) session.get(Book.class, (long)id);
+                session.delete(book);
+            }
+            BookReplica replica = replicas.get(currentTable.get());
+            commitInOrder(session,transaction,replica,() -> replica.delete(id));
             System.out.println("Deleted successfully");
+            return true;
         } catch (RuntimeException e){
             if (transaction!=null){
                 transaction.rollback();
@@ -113,16 +155,24 @@ public final class Database{
             if (session!=null){
                 session.close();
             }
+            invalidateCachedEntry(id);//after commit, so nobody caches the old value again
         }
+        return false;
     }
 
-    public void editEntryNameById(String newName, int id){
+    public boolean editEntryNameById(String newName, int id){
         Session session = sessionFactory.withOptions().interceptor(interceptor).openSession();
         Transaction transaction = session.beginTransaction();
         try {
-            Book book = (Book) session.get(Book.class, (long)id);
-            book.setName(newName);
-            transaction.commit();
+            if (isCached(id)){
+                executeUpdateById(session,getUpdateNameByIdQuery(),newName,id);
+            } else {
+                Book book = (Book) session.get(Book.class, (long)id);
+                book.setName(newName);
+            }
+            BookReplica replica = replicas.get(currentTable.get());
+            commitInOrder(session,transaction,replica,() -> replica.updateName(id,newName));
+            return true;
         } catch (RuntimeException e){
             if (transaction!=null){
                 transaction.rollback();
@@ -132,16 +182,24 @@ public final class Database{
             if (session!=null){
                 session.close();
             }
+            invalidateCachedEntry(id);//after commit, so nobody caches the old value again
         }
+        return false;
     }
     
-    public void editEntryStockById(int newStock, int id){
+    public boolean editEntryStockById(int newStock, int id){
         Session session = sessionFactory.withOptions().interceptor(interceptor).openSession();
         Transaction transaction = session.beginTransaction();
         try {
-            Book book = (Book) session.get(Book.class, (long)id);
-            book.setStock(newStock);
-            transaction.commit();
+            if (isCached(id)){
+                executeUpdateById(session,getUpdateStockByIdQuery(),newStock,id);
+            } else {
+                Book book = (Book) session.get(Book.class, (long)id);
+                book.setStock(newStock);
+            }
+            BookReplica replica = replicas.get(currentTable.get());
+            commitInOrder(session,transaction,replica,() -> replica.updateStock(id,newStock));
+            return true;
         } catch (RuntimeException e){
             if (transaction!=null){
                 transaction.rollback();
@@ -151,10 +209,12 @@ public final class Database{
             if (session!=null){
                 session.close();
             }
+            invalidateCachedEntry(id);//after commit, so nobody caches the old value again
         }
+        return false;
     }
 
-    public void executeSelectQuery(String query) {
+    public boolean executeSelectQuery(String query) {
         Session session = sessionFactory.withOptions().interceptor(interceptor).openSession();
         Transaction transaction = session.beginTransaction();
         try {
@@ -165,6 +225,119 @@ public final class Database{
                     book.getStock());
             }
             transaction.commit();
+            return true;
+        } catch (RuntimeException e){
+            if (transaction!=null){
+                transaction.rollback();
+            }
+            System.out.println(e.getMessage());
+        } finally {
+            if (session!=null){
+                session.close();
+            }
+        }
+        return false;
+    }
+
+    //update is only run, if there is a replica
+    private void commitInOrder(Session session, Transaction transaction, BookReplica replica, Runnable update){
+        commitInOrder(session,transaction,replica==null ? Map.of() : Map.of(replica,update));
+    }
+
+    /*
+     * Commit and apply the updates to their replicas in the same order as writers commit to H2.
+     * The session is flushed first, so H2 holds the row locks of the change, when the sequence
+     *  numbers are taken (see BookReplica.nextSequence()). Nothing waits for a replica before the commit.
+     */
+    private void commitInOrder(Session session, Transaction transaction, Map<BookReplica,Runnable> updates){
+        if (updates.isEmpty()){
+            transaction.commit();
+            return;
+        }
+        session.flush();
+        List<BookReplica> changed = new ArrayList<>(updates.keySet());
+        long[] sequences = new long[changed.size()];
+        for (int i = 0; i<sequences.length; i++){
+            sequences[i] = changed.get(i).nextSequence();
+        }
+        boolean committed = false;
+        try {
+            transaction.commit();
+            committed = true;
+        } finally {
+            //also after a failed commit, so later updates don't wait for these numbers
+            for (int i = 0; i<sequences.length; i++){
+                changed.get(i).apply(sequences[i],committed ? updates.get(changed.get(i)) : null);
+            }
+        }
+    }
+
+    //0 turns the cache off
+    public void setBookCacheSize(int maxEntries){
+        bookCache = maxEntries>0 ? new BookCache(maxEntries) : null;
+    }
+
+    public void showCacheStatistics(){
+        BookCache cache = bookCache;
+        if (cache!=null){
+            cache.printStatistics();
+        } else {
+            System.out.println("Book cache is turned off");
+        }
+    }
+
+    //true, if the entry of the current table is in the cache, so it surely exists
+    private boolean isCached(int id){
+        BookCache cache = bookCache;
+        return cache!=null && cache.contains(currentTable.get(),id);
+    }
+
+    private void invalidateCachedEntry(long id){
+        BookCache cache = bookCache;
+        if (cache!=null){
+            cache.invalidate(currentTable.get(),id);
+        }
+    }
+
+    //update or delete a single row by id with a native query, value is null for deletes
+    private void executeUpdateById(Session session, String query, Object value, int id){
+        Query<?> update = session.createNativeQuery(query);
+        if (value!=null){
+            update.setParameter(1,value);
+            update.setParameter(2,(long)id);
+        } else {
+            update.setParameter(1,(long)id);
+        }
+        if (update.executeUpdate()!=1){
+            throw new ObjectNotFoundException((long)id,"Book");
+        }
+    }
+
+    /*
+     * Turn on in-memory replicas for all tables - existing ones are loaded from H2 once,
+     *  after that every insert/edit/delete done through this class keeps them up to date.
+     * Ordered selects, stock range and top-by-stock selects are then served from memory.
+     */
+    public void enableReplicas(){
+        replicasEnabled = true;
+        for (String table: tables){
+            if (!replicas.containsKey(table)){
+                loadReplica(table);
+            }
+        }
+    }
+
+    private void loadReplica(String tableName){
+        Session session = sessionFactory.openSession();
+        Transaction transaction = session.beginTransaction();
+        try {
+            List<Book> books = session.createNativeQuery(getSelectAllOrderedByIdQuery(tableName), Book.class).list();
+            BookReplica replica = new BookReplica();
+            for (Book book: books){
+                replica.insert(book.getId(),book.getName(),book.getStock());
+            }
+            transaction.commit();
+            replicas.put(tableName,replica);
         } catch (RuntimeException e){
             if (transaction!=null){
                 transaction.rollback();
@@ -177,9 +350,37 @@ public final class Database{
         }
     }
 
+    //print the current table ordered by column, returns false if there is no replica to serve it
+    public boolean selectOrderedFromReplica(String column, boolean descending){
+        BookReplica replica = replicas.get(currentTable.get());
+        if (replica==null){
+            return false;
+        }
+        replica.forEachOrdered(column,descending,rowPrinter);
+        return true;
+    }
+
+    public void selectInStockRange(int minStock, int maxStock){
+        BookReplica replica = replicas.get(currentTable.get());
+        if (replica!=null){
+            replica.forEachInStockRange(minStock,maxStock,rowPrinter);
+        } else {
+            executeSelectQuery(getSelectStockRangeQuery(minStock,maxStock));
+        }
+    }
+
+    public void selectTopByStock(int count){
+        BookReplica replica = replicas.get(currentTable.get());
+        if (replica!=null){
+            replica.topByStock(count,rowPrinter);
+        } else {
+            executeSelectQuery(getSelectTopByStockQuery(count));
+        }
+    }
+
     public String getCurrentTable(){
-        if (!currentTable.isBlank()){
-            return currentTable;
+        if (!currentTable.get().isBlank()){
+            return currentTable.get();
         } else {
             return "";
         }
@@ -196,7 +397,7 @@ public final class Database{
                 List result = session.createNativeQuery(getSelectRowCountQuery(table)).list();
                 //cast the count to Long
                 Long count = ((Number)result.get(0)).longValue();
-                if (table.equals(currentTable)){
+                if (table.equals(currentTable.get())){
                     System.out.print("   >");//if found selected table - mark it for convenience
                 }
                 System.out.printf("|%-20s|%-5d|%n",table,count);//get the row count
@@ -215,6 +416,15 @@ public final class Database{
 
     //method to show and entry to the user, before editing it
     public boolean showEntryIfIdExists(int id){
+        BookCache cache = bookCache;
+        Book cached = cache!=null ? cache.get(currentTable.get(),id) : null;
+        if (cached!=null){
+            System.out.printf("| %d | %-10s | %-5d |%n",cached.getId(),
+                cached.getName(),
+                cached.getStock());
+            return true;
+        }
+        long generation = cache!=null ? cache.generation(currentTable.get()) : 0;//taken before reading, see BookCache
         Session session = sessionFactory.withOptions().interceptor(interceptor).openSession();
         Transaction transaction = session.beginTransaction();
         try {
@@ -227,6 +437,9 @@ public final class Database{
                     book.getName(),
                     book.getStock());
                 transaction.commit();
+                if (cache!=null){
+                    cache.put(currentTable.get(),book,generation);
+                }
                 return true;
             } else {
                 System.out.println("Entry not found");
@@ -246,13 +459,16 @@ public final class Database{
         return false;
     }
 
-    public void insertEntry(String name, int stock){
+    public boolean insertEntry(String name, int stock){
         Session session = sessionFactory.withOptions().interceptor(interceptor).openSession();
         Transaction transaction = session.beginTransaction();
         try {
             Book newBook = new Book(name,stock);
             session.persist(newBook);
-            transaction.commit();
+            BookReplica replica = replicas.get(currentTable.get());
+            //identity id is already assigned after persist
+            commitInOrder(session,transaction,replica,() -> replica.insert(newBook.getId(),name,stock));
+            return true;
         } catch (RuntimeException e){
             if (transaction!=null){
                 transaction.rollback();
@@ -263,14 +479,40 @@ public final class Database{
                 session.close();
             }
         }
+        return false;
     }
 
     public String getSelectByIdQuery(){
-        return String.format("SELECT * FROM %s WHERE BOOK_ID = ?;",currentTable);
+        return String.format("SELECT * FROM %s WHERE BOOK_ID = ?;",currentTable.get());
+    }
+
+    public String getUpdateNameByIdQuery(){
+        return String.format("UPDATE %s SET BOOK_NAME = ? WHERE BOOK_ID = ?;",currentTable.get());
+    }
+
+    public String getUpdateStockByIdQuery(){
+        return String.format("UPDATE %s SET BOOK_STOCK = ? WHERE BOOK_ID = ?;",currentTable.get());
+    }
+
+    public String getDeleteByIdQuery(){
+        return String.format("DELETE FROM %s WHERE BOOK_ID = ?;",currentTable.get());
     }
 
     public String getSelectAllQuery(){
-        return String.format("SELECT * FROM %s ",currentTable);
+        return String.format("SELECT * FROM %s ",currentTable.get());
+    }
+
+    public String getSelectAllOrderedByIdQuery(String tableName){
+        return String.format("SELECT * FROM %s ORDER BY BOOK_ID;",tableName);
+    }
+
+    public String getSelectStockRangeQuery(int minStock, int maxStock){
+        return String.format("SELECT * FROM %s WHERE BOOK_STOCK BETWEEN %d AND %d ORDER BY BOOK_STOCK, BOOK_ID;",
+            currentTable.get(),minStock,maxStock);
+    }
+
+    public String getSelectTopByStockQuery(int count){
+        return String.format("SELECT * FROM %s ORDER BY BOOK_STOCK DESC, BOOK_ID DESC LIMIT %d;",currentTable.get(),count);
     }
 
     public String getSelectRowCountQuery(String tableName){
@@ -286,7 +528,7 @@ public final class Database{
     }
 
     public String getDeleteTableQuery(){
-        return String.format("DROP TABLE IF EXISTS %s;",currentTable);
+        return String.format("DROP TABLE IF EXISTS %s;",currentTable.get());
     }
     
     public void closeDatabase(){
@@ -295,6 +537,133 @@ public final class Database{
         }
     }
 
+    //open a session and a transaction, which will be shared by many commands
+    public Batch beginBatch(){
+        return new Batch();
+    }
+
+    /*
+     * Several entry commands in one session and one transaction, used by the batch mode.
+     * Changes are sent to H2 when the table is switched or on commit,
+     *  replicas and the book cache are updated right after a successful commit, replicas in commit order.
+     * After a RuntimeException the batch can only be rolled back.
+     * rollback() also restores the table, which was current when the batch started.
+     */
+    public final class Batch{
+        private final Session session;
+        private final Transaction transaction;
+        private final String startTable;
+        private final List<Runnable> afterCommit = new ArrayList<>();//cache invalidations
+        private final Map<BookReplica,List<Runnable>> replicaUpdates = new LinkedHashMap<>();//in command order
+
+        private Batch(){
+            session = sessionFactory.withOptions().interceptor(interceptor).openSession();
+            transaction = session.beginTransaction();
+            startTable = currentTable.get();
+        }
+
+        public void useTable(String tableName) throws WrongInputException{
+            if (!tables.contains(tableName)){
+                throw WrongInputException.withMessage("no such table "+tableName);
+            }
+            //pending updates must reach the old table before the interceptor switches,
+            //and cached books of the old table must not be returned for the new one
+            session.flush();
+            session.clear();
+            currentTable.set(tableName);
+        }
+
+        public void insertEntry(String name, int stock) throws WrongInputException{
+            BookReplica replica = selectedReplica();
+            Book newBook = new Book(name,stock);
+            session.persist(newBook);
+            addReplicaUpdate(replica,() -> replica.insert(newBook.getId(),name,stock));
+        }
+
+        public void editEntryNameById(String newName, int id) throws WrongInputException{
+            BookReplica replica = selectedReplica();
+            getBook(id).setName(newName);
+            addReplicaUpdate(replica,() -> replica.updateName(id,newName));
+            invalidateAfterCommit(id);
+        }
+
+        public void editEntryStockById(int newStock, int id) throws WrongInputException{
+            BookReplica replica = selectedReplica();
+            getBook(id).setStock(newStock);
+            addReplicaUpdate(replica,() -> replica.updateStock(id,newStock));
+            invalidateAfterCommit(id);
+        }
+
+        public void deleteEntryById(int id) throws WrongInputException{
+            BookReplica replica = selectedReplica();
+            session.delete(getBook(id));
+            addReplicaUpdate(replica,() -> replica.delete(id));
+            invalidateAfterCommit(id);
+        }
+
+        public void commit(){
+            try {
+                Map<BookReplica,Runnable> updates = new LinkedHashMap<>();
+                for (Map.Entry<BookReplica,List<Runnable>> entry: replicaUpdates.entrySet()){
+                    List<Runnable> changes = entry.getValue();
+                    updates.put(entry.getKey(),() -> changes.forEach(Runnable::run));
+                }
+                commitInOrder(session,transaction,updates);
+                for (Runnable invalidation: afterCommit){
+                    invalidation.run();
+                }
+            } catch (RuntimeException e){
+                if (transaction.isActive()){
+                    transaction.rollback();
+                }
+                throw e;
+            } finally {
+                session.close();
+            }
+        }
+
+        public void rollback(){
+            try {
+                transaction.rollback();
+            } finally {
+                session.close();
+                currentTable.set(startTable);
+            }
+        }
+
+        private void addReplicaUpdate(BookReplica replica, Runnable update){
+            if (replica!=null){
+                replicaUpdates.computeIfAbsent(replica,changed -> new ArrayList<>()).add(update);
+            }
+        }
+
+        private void invalidateAfterCommit(int id){
+            String table = currentTable.get();
+            afterCommit.add(() -> {
+                BookCache cache = bookCache;
+                if (cache!=null){
+                    cache.invalidate(table,id);
+                }
+            });
+        }
+
+        private Book getBook(int id) throws WrongInputException{
+            Book book = session.get(Book.class, (long)id);
+            if (book==null){
+                throw WrongInputException.withMessage("no entry with id "+id+" in "+currentTable.get());
+            }
+            return book;
+        }
+
+        //also checks, that there is a table to work with
+        private BookReplica selectedReplica() throws WrongInputException{
+            if (!tables.contains(currentTable.get())){
+                throw WrongInputException.withMessage("no table selected");
+            }
+            return replicas.get(currentTable.get());
+        }
+    }
+
     /*
      * This interceptor allows me to change queries, so Hibernate sends
      *  data to different tables.
@@ -307,7 +676,7 @@ public final class Database{
         @Override
         public String onPrepareStatement(String sql){
             if (sql.contains("BOOKS")){
-                sql = sql.replace("BOOKS", currentTable);
+                sql = sql.replace("BOOKS", currentTable.get());
             }
             return sql;
         }
@@ -0,0 +1,470 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Load generator for the Database class.
+ * Runs a mix of operations from many concurrent clients (one virtual thread each)
+ *  against the in-memory H2 database and prints throughput, latency percentiles and error counts.
+ * Run it with: ./gradlew loadTest --args="--clients 32 --tables 4 --duration 20"
+ * Options:
+ *  --clients N     - number of concurrent clients, default 8
+ *  --tables M      - number of tables the clients work with, default 4
+ *  --rows R        - rows inserted into every table before the run, default 1000
+ *  --duration S    - measured seconds, default 10
+ *  --warmup S      - seconds before the measurement starts, default 2
+ *  --rate R        - open loop: R operations per second in total, no matter how fast they complete
+ *                    without it - closed loop: every client starts the next operation when the last one is done
+ *  --mix list      - weights of the operations, default read=50,sorted=10,insert=15,stock=15,delete=9,create=1
+ *  --replica       - serve sorted selects from the in-memory replicas
+ *  --cache-size N  - number of books in the book cache, 0 turns it off, default Database.DEFAULT_CACHE_SIZE
+ * In the open loop latency is measured from the time the operation was due, so queueing is included.
+ *  Operations, which finish after the measured window, and arrivals, which were never served,
+ *  are recorded as waiting until the end of the window - an overloaded database can't hide them.
+ * Tables made by "create" only count as operations, the clients keep working with the first M tables.
+ */
+public class LoadGenerator{
+
+    enum Operation{
+        READ("read"),//showEntryIfIdExists
+        SORTED("sorted"),//select all ordered by stock
+        INSERT("insert"),
+        STOCK("stock"),//editEntryStockById
+        DELETE("delete"),
+        CREATE("create");//addTable
+
+        final String label;
+
+        Operation(String label){
+            this.label = label;
+        }
+    }
+
+    private static final String DEFAULT_MIX = "read=50,sorted=10,insert=15,stock=15,delete=9,create=1";
+
+    private final Database database;
+    private final List<TableState> tables = new ArrayList<>();
+    private final Operation[] operations = Operation.values();
+    private final int[] weights = new int[operations.length];
+    private int totalWeight = 0;
+
+    private int clients = 8;
+    private int tableCount = 4;
+    private int rows = 1000;
+    private int duration = 10;
+    private int warmup = 2;
+    private int rate = 0;//0 - closed loop
+    private boolean replica = false;
+    private int cacheSize = Database.DEFAULT_CACHE_SIZE;
+
+    public static void main(String[] args){
+        PrintStream out = System.out;
+        LoadGenerator generator;
+        try {
+            generator = new LoadGenerator(args);
+        } catch (WrongInputException e){
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        //Database prints every row and message - nobody reads them during the run
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            generator.setUp();
+            Histogram unserved = new Histogram();
+            Client[] results = generator.run(unserved);
+            System.setOut(out);
+            generator.printReport(out,results,unserved);
+            generator.database.showCacheStatistics();
+        } catch (WrongInputException | InterruptedException e){
+            out.println(e.getMessage());
+        } finally {
+            System.setOut(out);
+            generator.database.closeDatabase();
+        }
+    }
+
+    private LoadGenerator(String[] args) throws WrongInputException{
+        String mix = DEFAULT_MIX;
+        for (int i = 0; i<args.length; i++){
+            if (args[i].equals("--clients")){
+                clients = App.integerOptionValue(args,i++,1);
+            } else if (args[i].equals("--tables")){
+                tableCount = App.integerOptionValue(args,i++,1);
+            } else if (args[i].equals("--rows")){
+                rows = App.integerOptionValue(args,i++,0);
+            } else if (args[i].equals("--duration")){
+                duration = App.integerOptionValue(args,i++,1);
+            } else if (args[i].equals("--warmup")){
+                warmup = App.integerOptionValue(args,i++,0);
+            } else if (args[i].equals("--rate")){
+                rate = App.integerOptionValue(args,i++,0);
+                if (rate>TimeUnit.SECONDS.toNanos(1)){
+                    //the interval between arrivals would be 0 ns and the schedule would never move on
+                    throw WrongInputException.withMessage("--rate can't be more than 1000000000 operations per second");
+                }
+            } else if (args[i].equals("--mix")){
+                mix = App.optionValue(args,i++);
+            } else if (args[i].equals("--replica")){
+                replica = true;
+            } else if (args[i].equals("--cache-size")){
+                cacheSize = App.integerOptionValue(args,i++,0);
+            } else {
+                throw WrongInputException.withMessage("unknown argument "+args[i]);
+            }
+        }
+        parseMix(mix);
+        //settings for Database - no sql in the output, and a connection for every client
+        System.setProperty("hibernate.show_sql","false");
+        System.setProperty("hibernate.connection.pool_size",String.valueOf(clients));
+        database = Database.getDatabase();
+        if (database==null){
+            throw WrongInputException.withMessage("database is already in use");
+        }
+        database.setBookCacheSize(cacheSize);
+    }
+
+    private void parseMix(String mix) throws WrongInputException{
+        for (String part: mix.split(",")){
+            String[] pair = part.split("=");
+            Operation operation = null;
+            for (Operation candidate: operations){
+                if (pair.length==2 && candidate.label.equals(pair[0].strip())){
+                    operation = candidate;
+                }
+            }
+            if (operation==null){
+                throw WrongInputException.withMessage("invalid --mix entry "+part);
+            }
+            try {
+                weights[operation.ordinal()] = Integer.parseInt(pair[1].strip());
+            } catch (NumberFormatException e){
+                weights[operation.ordinal()] = -1;
+            }
+            if (weights[operation.ordinal()]<0){
+                throw WrongInputException.withMessage("invalid --mix entry "+part);
+            }
+        }
+        for (int weight: weights){
+            totalWeight += weight;
+        }
+        if (totalWeight==0){
+            throw WrongInputException.withMessage("--mix needs an operation with a weight above 0");
+        }
+    }
+
+    //create the tables and fill them in one transaction per table
+    private void setUp() throws WrongInputException{
+        for (int i = 0; i<tableCount; i++){
+            String tableName = database.addTable();
+            if (tableName==null){
+                throw WrongInputException.withMessage("could not create a table");
+            }
+            Database.Batch batch = database.beginBatch();
+            batch.useTable(tableName);
+            for (int row = 0; row<rows; row++){
+                batch.insertEntry("Book "+row,ThreadLocalRandom.current().nextInt(1000));
+            }
+            batch.commit();
+            tables.add(new TableState(tableName,rows));
+        }
+        if (replica){
+            database.enableReplicas();
+        }
+    }
+
+    //unserved gets the waiting time of the arrivals, which no client took before the end
+    private Client[] run(Histogram unserved) throws InterruptedException{
+        Client[] results = new Client[clients];
+        long start = System.nanoTime();
+        long measureFrom = start+TimeUnit.SECONDS.toNanos(warmup);
+        long deadline = measureFrom+TimeUnit.SECONDS.toNanos(duration);
+        BlockingQueue<Long> arrivals = new LinkedBlockingQueue<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()){
+            for (int i = 0; i<clients; i++){
+                Client client = new Client(measureFrom,deadline);
+                results[i] = client;
+                if (rate>0){
+                    executor.submit(() -> client.runOpenLoop(arrivals));
+                } else {
+                    executor.submit(client::runClosedLoop);
+                }
+            }
+            if (rate>0){
+                schedule(arrivals,start,deadline);
+            }
+        }//waits for all clients to finish
+        for (Long due: arrivals){
+            unserved.record(deadline-due);
+        }
+        return results;
+    }
+
+    //put the due time of every operation into the queue at a fixed rate
+    private void schedule(BlockingQueue<Long> arrivals, long start, long deadline) throws InterruptedException{
+        long interval = TimeUnit.SECONDS.toNanos(1)/rate;
+        long next = start;
+        while (next<deadline){
+            long wait = next-System.nanoTime();
+            if (wait>0){
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            arrivals.put(next);
+            next += interval;
+        }
+    }
+
+    private Operation nextOperation(ThreadLocalRandom random){
+        int value = random.nextInt(totalWeight);
+        for (Operation operation: operations){
+            value -= weights[operation.ordinal()];
+            if (value<0){
+                return operation;
+            }
+        }
+        return Operation.READ;
+    }
+
+    //returns false, if the operation failed
+    private boolean execute(Operation operation, ThreadLocalRandom random){
+        TableState table = tables.get(random.nextInt(tables.size()));
+        database.setCurrentTable(table.name);
+        switch (operation){
+            case READ:
+                return database.showEntryIfIdExists(table.randomId(random));
+            case SORTED:
+                return database.selectOrderedFromReplica("BOOK_STOCK",true)
+                    || database.executeSelectQuery(database.getSelectAllQuery()+"ORDER BY BOOK_STOCK DESC;");
+            case INSERT:
+                if (database.insertEntry("New book",random.nextInt(1000))){
+                    table.highestId.incrementAndGet();
+                    return true;
+                }
+                return false;
+            case STOCK:
+                return database.editEntryStockById(random.nextInt(1000),table.randomId(random));
+            case DELETE:
+                //delete the oldest rows, so reads and edits can keep to the ids, which still exist
+                long id;
+                do {
+                    id = table.lowestId.get();
+                    if (id>table.highestId.get()){
+                        return false;//nothing left to delete
+                    }
+                } while (!table.lowestId.compareAndSet(id,id+1));
+                return database.deleteEntryById((int)id);
+            case CREATE:
+                return database.addTable()!=null;
+            default:
+                return false;
+        }
+    }
+
+    private void printReport(PrintStream out, Client[] results, Histogram unserved){
+        Histogram[] histograms = new Histogram[operations.length];
+        long[] errors = new long[operations.length];
+        Histogram all = new Histogram();
+        long allErrors = 0;
+        long completed = 0;
+        for (int i = 0; i<operations.length; i++){
+            histograms[i] = new Histogram();
+            for (Client client: results){
+                histograms[i].add(client.histograms[i]);
+                errors[i] += client.errors[i];
+            }
+            all.add(histograms[i]);
+            allErrors += errors[i];
+        }
+        for (Client client: results){
+            completed += client.completed;
+        }
+        out.printf("%s, %d clients, %d tables, %d rows per table, %d s measured after %d s warmup%s%n",
+            rate>0 ? "Open loop at "+rate+" ops/s" : "Closed loop",
+            clients,tableCount,rows,duration,warmup,replica ? ", replicas on" : "");
+        out.printf("Throughput: %.1f ops/s (%d operations, %d errors)%n",
+            (double)completed/duration,completed,allErrors);
+        if (rate>0){
+            out.printf("Unserved arrivals: %d%n",unserved.count());
+        }
+        out.printf("|%-8s|%9s|%7s|%9s|%9s|%9s|%9s|%9s|%n",
+            "op","count","errors","p50 ms","p90 ms","p99 ms","p99.9 ms","max ms");
+        for (int i = 0; i<operations.length; i++){
+            if (weights[i]>0){
+                printRow(out,operations[i].label,histograms[i],errors[i]);
+            }
+        }
+        if (rate>0){
+            //they never ran, but their waiting time belongs to the latency of the run
+            printRow(out,"unserved",unserved,0);
+            all.add(unserved);
+        }
+        printRow(out,"all",all,allErrors);
+    }
+
+    private void printRow(PrintStream out, String label, Histogram histogram, long errors){
+        out.printf("|%-8s|%9d|%7d|%9.3f|%9.3f|%9.3f|%9.3f|%9.3f|%n",label,histogram.count(),errors,
+            millis(histogram.percentile(50)),millis(histogram.percentile(90)),
+            millis(histogram.percentile(99)),millis(histogram.percentile(99.9)),millis(histogram.max()));
+    }
+
+    private static double millis(long nanos){
+        return nanos/1_000_000.0;
+    }
+
+    //ids of a table, which are probably still there: deletes move the lowest up, inserts move the highest up
+    static class TableState{
+        final String name;
+        final AtomicLong lowestId = new AtomicLong(1);
+        final AtomicLong highestId;
+
+        TableState(String name, int rows){
+            this.name = name;
+            this.highestId = new AtomicLong(rows);
+        }
+
+        int randomId(ThreadLocalRandom random){
+            long low = lowestId.get();
+            long high = highestId.get();
+            return (int)(high>low ? random.nextLong(low,high+1) : low);
+        }
+    }
+
+    //one client's results - only its own thread writes them, they are merged after the run
+    class Client{
+        final Histogram[] histograms = new Histogram[operations.length];
+        final long[] errors = new long[operations.length];
+        final long measureFrom;
+        final long deadline;
+        long completed = 0;//operations, which finished inside the measured window
+
+        Client(long measureFrom, long deadline){
+            this.measureFrom = measureFrom;
+            this.deadline = deadline;
+            for (int i = 0; i<histograms.length; i++){
+                histograms[i] = new Histogram();
+            }
+        }
+
+        void runClosedLoop(){
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long start;
+            while ((start = System.nanoTime())<deadline){
+                measure(start,random,false);
+            }
+        }
+
+        void runOpenLoop(BlockingQueue<Long> arrivals){
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                while (System.nanoTime()<deadline){
+                    Long due = arrivals.poll(deadline-System.nanoTime(),TimeUnit.NANOSECONDS);
+                    if (due!=null){
+                        measure(due,random,true);
+                    }
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        //latency is counted from start, which is the due time in the open loop
+        //an operation is in the results, if it finished inside the measured window,
+        // in the open loop also if it was still running at the end - then it waited until the deadline
+        private void measure(long start, ThreadLocalRandom random, boolean openLoop){
+            Operation operation = nextOperation(random);
+            boolean ok;
+            try {
+                ok = execute(operation,random);
+            } catch (RuntimeException e){
+                ok = false;
+            }
+            long end = System.nanoTime();
+            if (end>=measureFrom && end<=deadline){
+                completed++;
+            } else if (openLoop && end>deadline){
+                end = deadline;//still running at the end of the window, so it waited at least until then
+            } else {
+                return;
+            }
+            histograms[operation.ordinal()].record(end-start);
+            if (!ok){
+                errors[operation.ordinal()]++;
+            }
+        }
+    }
+
+    /*
+     * Latency histogram with about 1.5% precision and constant memory.
+     * Values below 128 ns have their own buckets, above that every power of two
+     *  is split into 64 buckets.
+     */
+    static class Histogram{
+        private static final int SUB_BUCKETS = 64;
+        private final long[] counts = new long[2*SUB_BUCKETS+57*SUB_BUCKETS];
+        private long count = 0;
+        private long max = 0;
+
+        void record(long value){
+            counts[index(Math.max(value,0))]++;
+            count++;
+            max = Math.max(max,value);
+        }
+
+        void add(Histogram other){
+            for (int i = 0; i<counts.length; i++){
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max,other.max);
+        }
+
+        long count(){
+            return count;
+        }
+
+        long max(){
+            return max;
+        }
+
+        //upper bound of the bucket, which holds the given percentile
+        long percentile(double percentile){
+            if (count==0){
+                return 0;
+            }
+            long rank = (long)Math.ceil(count*percentile/100.0);
+            long seen = 0;
+            for (int i = 0; i<counts.length; i++){
+                seen += counts[i];
+                if (seen>=Math.max(rank,1)){
+                    return Math.min(upperBound(i),max);
+                }
+            }
+            return max;
+        }
+
+        private static int index(long value){
+            if (value<2*SUB_BUCKETS){
+                return (int)value;
+            }
+            int shift = 63-Long.numberOfLeadingZeros(value)-6;//value>>>shift is between 64 and 127
+            return 2*SUB_BUCKETS+(shift-1)*SUB_BUCKETS+(int)(value>>>shift)-SUB_BUCKETS;
+        }
+
+        private static long upperBound(int index){
+            if (index<2*SUB_BUCKETS){
+                return index;
+            }
+            int shift = (index-2*SUB_BUCKETS)/SUB_BUCKETS+1;
+            long mantissa = (index-2*SUB_BUCKETS)%SUB_BUCKETS+SUB_BUCKETS;
+            return ((mantissa+1)<<shift)-1;
+        }
+    }
+}
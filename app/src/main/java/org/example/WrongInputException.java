@@ -3,7 +3,16 @@ class WrongInputException extends Exception{
     String message;
 
     public WrongInputException(String input){
-        message = "Input: "+input;
+        this("Input: ",input);
+    }
+
+    private WrongInputException(String prefix, String text){
+        message = prefix+text;
+    }
+
+    //for errors, which are not about the typed text itself - the message is shown as it is
+    public static WrongInputException withMessage(String message){
+        return new WrongInputException("",message);
     }
 
     public String getMessage(){
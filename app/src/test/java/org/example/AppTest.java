@@ -1,14 +1,23 @@
 /*
  * This source file was generated by the Gradle 'init' task
  */
-package org.example;
-
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+//App and the other classes are in the default package, so the tests are too
 class AppTest {
-    @Test void appHasAGreeting() {
-        App classUnderTest = new App();
-        assertNotNull(classUnderTest.getGreeting(), "app should have a greeting");
+    @Test void appAcceptsOnlyPositiveIntegers() throws WrongInputException {
+        assertEquals(42,App.checkPositiveInteger("42"));
+        assertEquals(0,App.checkPositiveInteger("0"));
+        assertThrows(WrongInputException.class,() -> App.checkPositiveInteger("-1"));
+        assertThrows(WrongInputException.class,() -> App.checkPositiveInteger("abc"));
+    }
+
+    @Test void optionValuesAreChecked() throws WrongInputException {
+        String[] args = {"--batch-size","5","--cache-size","-1","--batch"};
+        assertEquals(5,App.integerOptionValue(args,0,1));
+        WrongInputException e = assertThrows(WrongInputException.class,() -> App.integerOptionValue(args,2,0));
+        assertEquals("missing or invalid value for --cache-size",e.getMessage());
+        assertThrows(WrongInputException.class,() -> App.optionValue(args,4));
     }
 }
@@ -0,0 +1,193 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchRunnerTest {
+
+    @Test void splitsOnSemicolonsAndNewLines() throws IOException {
+        List<BatchRunner.Command> commands = read("use Books_0; insert Dune 5\nstock 1 10;;\n\ndelete 7");
+        assertEquals(4,commands.size());
+        assertCommand(commands.get(0),1,"use",List.of("Books_0"));
+        assertCommand(commands.get(1),1,"insert",List.of("Dune","5"));
+        assertCommand(commands.get(2),2,"stock",List.of("1","10"));
+        assertCommand(commands.get(3),4,"delete",List.of("7"));
+        assertEquals("insert Dune 5",commands.get(1).text);
+    }
+
+    @Test void keywordIsCaseInsensitiveButArgumentsAreKept() throws IOException {
+        BatchRunner.Command command = read("INSERT MixedCase 1").get(0);
+        assertEquals("insert",command.keyword());
+        assertEquals("MixedCase",command.argument(0));
+    }
+
+    @Test void quotesKeepSeparatorsAndSpaces() throws IOException {
+        List<BatchRunner.Command> commands = read("insert \"Dune; part 1\" 5; name 1 \"two  spaces\"");
+        assertEquals(2,commands.size());
+        assertCommand(commands.get(0),1,"insert",List.of("Dune; part 1","5"));
+        assertCommand(commands.get(1),1,"name",List.of("1","two  spaces"));
+    }
+
+    @Test void backslashEscapesTheNextCharacterInQuotes() throws IOException {
+        BatchRunner.Command command = read("insert \"say \\\"hi\\\" \\\\ there\" 1").get(0);
+        assertEquals("say \"hi\" \\ there",command.argument(0));
+    }
+
+    @Test void emptyQuotesAreAnArgument() throws IOException {
+        assertCommand(read("insert \"\" 3").get(0),1,"insert",List.of("","3"));
+    }
+
+    @Test void quotedTextMaySpanLines() throws IOException {
+        List<BatchRunner.Command> commands = read("insert \"first\nsecond\" 2\ndelete 1");
+        assertEquals(2,commands.size());
+        assertCommand(commands.get(0),1,"insert",List.of("first\nsecond","2"));
+        //the line of the next command is counted after the quoted line break
+        assertCommand(commands.get(1),3,"delete",List.of("1"));
+    }
+
+    @Test void commentLinesAreSkipped() throws IOException {
+        List<BatchRunner.Command> commands = read("# setup\n  # indented comment\nuse Books_0\n");
+        assertEquals(1,commands.size());
+        assertCommand(commands.get(0),3,"use",List.of("Books_0"));
+    }
+
+    @Test void lineStartsAtTheFirstWordOfTheCommand() throws IOException {
+        List<BatchRunner.Command> commands = read("use Books_0;\n\n   \"quoted\" keyword");
+        assertEquals(3,commands.get(1).line);
+        assertEquals("quoted",commands.get(1).keyword());
+    }
+
+    @Test void unterminatedQuoteIsKeptAsACommand() throws IOException {
+        List<BatchRunner.Command> commands = read("delete 1\ninsert \"open");
+        assertEquals(2,commands.size());
+        BatchRunner.Command command = commands.get(1);
+        assertEquals(2,command.line);
+        assertEquals("insert",command.keyword());
+        assertEquals("insert \"open",command.text);
+    }
+
+    @Test void positiveIntegerRejectsNegativeAndText() throws IOException {
+        BatchRunner.Command command = read("stock -1 abc 2147483647").get(0);
+        assertThrows(WrongInputException.class,() -> command.positiveInteger(0));
+        assertThrows(WrongInputException.class,() -> command.positiveInteger(1));
+        assertDoesNotThrow(() -> assertEquals(Integer.MAX_VALUE,command.positiveInteger(2)));
+        assertThrows(WrongInputException.class,() -> command.expectArguments(2));
+    }
+
+    @Test void commandsAreCommittedInGroupsOfBatchSize() throws SQLException {
+        String table = SharedDatabase.newTable();
+        String output = run(2,false,"use "+table+"\ninsert a 1\ninsert b 2\ninsert c 3\ninsert d 4");
+        //"use" counts as a command of the group too
+        assertTrue(output.contains("Batch finished: 5 commands, 0 failed, 3 transactions"),output);
+        assertEquals(List.of("1:a:1","2:b:2","3:c:3","4:d:4"),SharedDatabase.rows(table));
+    }
+
+    @Test void failedCommandIsSkippedAndTheRestCommits() throws SQLException {
+        String table = SharedDatabase.newTable();
+        String output = run(10,false,"use "+table+"\ninsert a 1\ndelete 99\nname 1 b");
+        assertEquals(1,failed);
+        assertTrue(output.contains("Line 3: delete 99 - no entry with id 99 in "+table),output);
+        assertEquals(List.of("1:b:1"),SharedDatabase.rows(table));
+    }
+
+    @Test void databaseErrorReplaysTheGroupWithoutInserts() throws SQLException {
+        String table = tableWithStockLimit();
+        //the insert fails in H2, the earlier edit is repeated in a new transaction
+        String output = run(10,false,"use "+table+"\nstock 1 5\ninsert big 5000\nstock 2 6");
+        assertEquals(1,failed);
+        assertTrue(output.contains("Line 3: insert big 5000"),output);
+        assertEquals(List.of("1:x:5","2:y:6"),SharedDatabase.rows(table));
+    }
+
+    @Test void databaseErrorDropsTheGroupWithInserts() throws SQLException {
+        String table = tableWithStockLimit();
+        String output = run(10,false,"use "+table+"\ninsert ok 5\nstock 1 7\ninsert big 5000\nstock 2 8");
+        assertTrue(output.contains("Transaction rolled back, 3 commands from line 1 were not applied"),output);
+        assertEquals(4,failed);
+        //the table selected by the dropped group stays selected for the next command
+        assertEquals(List.of("1:x:1","2:y:8"),SharedDatabase.rows(table));
+    }
+
+    @Test void stopOnErrorSkipsTheRestOfTheScript() throws SQLException {
+        String table = SharedDatabase.newTable();
+        String output = run(10,true,"use "+table+"\ninsert a 1\ndelete 99\ninsert b 2");
+        assertTrue(output.contains("Batch finished: 3 commands, 1 failed, 1 transactions"),output);
+        assertEquals(List.of("1:a:1"),SharedDatabase.rows(table));
+    }
+
+    @Test void stopOnErrorStopsAfterAFailedCommit() throws SQLException {
+        String table = tableWithStockLimit();
+        //the edit only reaches H2, when the group is committed
+        String output = run(10,true,"use "+table+"\nstock 1 5000\ncommit\ninsert c 1");
+        assertTrue(output.contains("Commit failed, 2 commands were not applied"),output);
+        assertEquals(List.of("1:x:1","2:y:2"),SharedDatabase.rows(table));
+        //the same, when the commit is started by the batch size
+        output = run(2,true,"use "+table+"\nstock 1 5000\ninsert c 1");
+        assertTrue(output.contains("Batch finished: 2 commands, 2 failed, 0 transactions"),output);
+        assertEquals(List.of("1:x:1","2:y:2"),SharedDatabase.rows(table));
+    }
+
+    @Test void exitCodeTellsIfACommandFailed(@TempDir Path directory) throws Exception {
+        Path script = directory.resolve("script.txt");
+        Files.writeString(script,"create\nuse Books_0\ninsert a 1\n");
+        assertEquals(0,runApp("--batch",script.toString()));
+        Files.writeString(script,"create\nuse Books_0\ninsert a 1\ndelete 99\n");
+        assertEquals(1,runApp("--batch",script.toString()));
+        assertEquals(2,runApp("--batch-size","0","--batch",script.toString()));
+    }
+
+    private int failed;
+
+    //runs the script on the shared database and returns what it printed
+    private String run(int batchSize, boolean stopOnError, String script) {
+        BatchRunner runner = new BatchRunner(SharedDatabase.DATABASE,batchSize,stopOnError);
+        return SharedDatabase.output(() -> {
+            try {
+                failed = runner.run(new BufferedReader(new StringReader(script)));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    //rows 1 and 2 with stock 1 and 2, H2 rejects a stock of 1000 or more
+    private static String tableWithStockLimit() throws SQLException {
+        String table = SharedDatabase.newTable();
+        SharedDatabase.execute("INSERT INTO "+table+" (BOOK_NAME, BOOK_STOCK) VALUES ('x', 1), ('y', 2)");
+        SharedDatabase.execute("ALTER TABLE "+table+" ADD CHECK (BOOK_STOCK < 1000)");
+        return table;
+    }
+
+    //App in its own JVM - it has its own database and may call System.exit()
+    private static int runApp(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(Path.of(System.getProperty("java.home"),"bin","java").toString(),
+            "-cp",System.getProperty("java.class.path"),"App"));
+        command.addAll(List.of(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes(),StandardCharsets.UTF_8);
+        int exitCode = process.waitFor();
+        assertFalse(output.contains("Could not find or load main class"),output);
+        assertFalse(output.contains("Hibernate:"),"batch mode doesn't print sql");
+        return exitCode;
+    }
+
+    private static List<BatchRunner.Command> read(String script) throws IOException {
+        return BatchRunner.readCommands(new BufferedReader(new StringReader(script)));
+    }
+
+    private static void assertCommand(BatchRunner.Command command, int line, String keyword, List<String> arguments) {
+        assertEquals(line,command.line,"line of "+command.text);
+        assertEquals(keyword,command.keyword());
+        assertEquals(arguments,command.arguments);
+    }
+}
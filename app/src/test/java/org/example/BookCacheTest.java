@@ -0,0 +1,132 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookCacheTest {
+
+    @Test void sameIdInDifferentTablesAreDifferentEntries() {
+        BookCache cache = new BookCache(10);
+        cache.put("Books_0",book(1,"first",5),cache.generation("Books_0"));
+        cache.put("Books_3",book(1,"second",7),cache.generation("Books_3"));
+        assertEquals("first",cache.get("Books_0",1).getName());
+        assertEquals("second",cache.get("Books_3",1).getName());
+        assertNull(cache.get("Books_1",1));
+    }
+
+    @Test void cachedBooksAreCopies() {
+        BookCache cache = new BookCache(10);
+        Book original = book(1,"name",5);
+        cache.put("Books_0",original,cache.generation("Books_0"));
+        original.setStock(99);
+        cache.get("Books_0",1).setStock(42);
+        assertEquals(5,cache.get("Books_0",1).getStock());
+    }
+
+    @Test void putAfterAnInvalidationIsRejected() {
+        BookCache cache = new BookCache(10);
+        long readGeneration = cache.generation("Books_0");//a reader starts loading the book
+        cache.invalidate("Books_0",1);//a writer commits a change meanwhile
+        cache.put("Books_0",book(1,"stale",1),readGeneration);
+        assertFalse(cache.contains("Books_0",1));
+        cache.put("Books_0",book(1,"fresh",2),cache.generation("Books_0"));
+        assertEquals("fresh",cache.get("Books_0",1).getName());
+    }
+
+    @Test void invalidationInAnotherTableDoesntRejectAPut() {
+        BookCache cache = new BookCache(10);
+        long readGeneration = cache.generation("Books_0");
+        cache.invalidate("Books_1",1);
+        cache.put("Books_0",book(1,"kept",1),readGeneration);
+        assertTrue(cache.contains("Books_0",1));
+    }
+
+    @Test void droppedTableCantBeFilledAgainByAnOldReader() {
+        BookCache cache = new BookCache(10);
+        long readGeneration = cache.generation("Books_0");
+        cache.invalidateRegion("Books_0");
+        cache.get("Books_0",1);//creates the region again
+        cache.put("Books_0",book(1,"old",1),readGeneration);
+        assertFalse(cache.contains("Books_0",1));
+    }
+
+    @Test void invalidateRemovesOnlyThatEntry() {
+        BookCache cache = new BookCache(10);
+        cache.put("Books_0",book(1,"a",1),cache.generation("Books_0"));
+        cache.put("Books_0",book(2,"b",2),cache.generation("Books_0"));
+        cache.invalidate("Books_0",1);
+        assertFalse(cache.contains("Books_0",1));
+        assertTrue(cache.contains("Books_0",2));
+    }
+
+    @Test void invalidateRegionDropsTheWholeTable() {
+        BookCache cache = new BookCache(10);
+        cache.put("Books_0",book(1,"a",1),cache.generation("Books_0"));
+        cache.put("Books_0",book(2,"b",2),cache.generation("Books_0"));
+        cache.put("Books_1",book(1,"c",3),cache.generation("Books_1"));
+        long readGeneration = cache.generation("Books_0");
+        cache.invalidateRegion("Books_0");
+        assertFalse(cache.contains("Books_0",1));
+        assertFalse(cache.contains("Books_0",2));
+        assertTrue(cache.contains("Books_1",1));
+        //a reader of the dropped table can't put its book back
+        cache.put("Books_0",book(1,"a",1),readGeneration);
+        assertFalse(cache.contains("Books_0",1));
+    }
+
+    @Test void leastRecentlyUsedEntryIsEvicted() {
+        BookCache cache = new BookCache(2);
+        cache.put("Books_0",book(1,"a",1),cache.generation("Books_0"));
+        cache.put("Books_0",book(2,"b",2),cache.generation("Books_0"));
+        cache.get("Books_0",1);//1 is now used more recently than 2
+        cache.put("Books_0",book(3,"c",3),cache.generation("Books_0"));
+        assertTrue(cache.contains("Books_0",1));
+        assertFalse(cache.contains("Books_0",2));
+        assertTrue(cache.contains("Books_0",3));
+    }
+
+    @Test void containsDoesNotChangeTheEvictionOrder() {
+        BookCache cache = new BookCache(2);
+        cache.put("Books_0",book(1,"a",1),cache.generation("Books_0"));
+        cache.put("Books_0",book(2,"b",2),cache.generation("Books_0"));
+        assertTrue(cache.contains("Books_0",1));
+        cache.put("Books_0",book(3,"c",3),cache.generation("Books_0"));
+        assertFalse(cache.contains("Books_0",1));
+        assertTrue(cache.contains("Books_0",2));
+    }
+
+    @Test void statisticsCountOnlyGets() {
+        BookCache cache = new BookCache(2);
+        cache.put("Books_0",book(1,"a",1),cache.generation("Books_0"));
+        cache.get("Books_0",1);
+        cache.get("Books_0",1);
+        cache.get("Books_0",2);
+        cache.contains("Books_0",1);
+        cache.contains("Books_0",2);
+        cache.put("Books_1",book(1,"b",1),cache.generation("Books_1"));
+        cache.put("Books_1",book(2,"c",1),cache.generation("Books_1"));//evicts Books_0 #1
+        String statistics = statistics(cache);
+        assertTrue(statistics.contains(String.format("|%-20s|%-8d|%-10d|%-10d|%7.2f%%|","Books_0",0,2,1,66.67)),statistics);
+        assertTrue(statistics.contains(String.format("|%-20s|%-8d|%-10d|%-10d|%7.2f%%|","Total",2,2,1,66.67)),statistics);
+        assertTrue(statistics.contains("Max entries: 2, evictions: 1"),statistics);
+    }
+
+    private static Book book(long id, String name, int stock) {
+        Book book = new Book(name,stock);
+        book.setId(id);
+        return book;
+    }
+
+    private static String statistics(BookCache cache) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer));
+        try {
+            cache.printStatistics();
+        } finally {
+            System.setOut(out);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,209 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * The replica must give the same rows in the same order as the H2 queries it replaces.
+ * Equal values are ordered by id in both, the replica compares the ids, when it inserts a row into a permutation.
+ */
+class BookReplicaTest {
+    private Connection connection;
+    private BookReplica replica;
+
+    @BeforeEach void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:replicaTest");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE Books (BOOK_ID BIGINT PRIMARY KEY, BOOK_NAME text, BOOK_STOCK INTEGER)");
+        }
+        replica = new BookReplica();
+    }
+
+    @AfterEach void tearDown() throws SQLException {
+        connection.close();//the in-memory database is dropped with its last connection
+    }
+
+    @Test void insertKeepsIdOrderAndIgnoresDuplicates() {
+        replica.insert(5,"e",1);
+        replica.insert(2,"b",1);
+        replica.insert(9,"i",1);
+        replica.insert(2,"again",7);
+        assertEquals(3,replica.size());
+        assertEquals(List.of("2:b:1","5:e:1","9:i:1"),ordered("BOOK_ID",false));
+    }
+
+    @Test void orderingMatchesH2() throws SQLException {
+        fill(500);
+        assertEquals(query("ORDER BY BOOK_ID"),ordered("BOOK_ID",false));
+        assertEquals(query("ORDER BY BOOK_ID DESC"),ordered("BOOK_ID",true));
+        assertEquals(query("ORDER BY BOOK_STOCK, BOOK_ID"),ordered("BOOK_STOCK",false));
+        assertEquals(query("ORDER BY BOOK_STOCK DESC, BOOK_ID DESC"),ordered("BOOK_STOCK",true));
+        assertEquals(query("ORDER BY BOOK_NAME, BOOK_ID"),ordered("BOOK_NAME",false));
+        assertEquals(query("ORDER BY BOOK_NAME DESC, BOOK_ID DESC"),ordered("BOOK_NAME",true));
+    }
+
+    @Test void stockRangeMatchesH2() throws SQLException {
+        fill(300);
+        int[][] ranges = {{-50,50},{0,0},{-1000,1000},{99,-99},{1000,2000},{-2000,-1000}};
+        for (int[] range: ranges) {
+            List<String> rows = new ArrayList<>();
+            replica.forEachInStockRange(range[0],range[1],(id,name,stock) -> rows.add(id+":"+name+":"+stock));
+            assertEquals(query(String.format("WHERE BOOK_STOCK BETWEEN %d AND %d ORDER BY BOOK_STOCK, BOOK_ID",
+                range[0],range[1])),rows,"range "+range[0]+".."+range[1]);
+        }
+    }
+
+    @Test void topByStockMatchesH2() throws SQLException {
+        fill(200);
+        for (int k: new int[]{0,1,10,200,500}) {
+            List<String> rows = new ArrayList<>();
+            replica.topByStock(k,(id,name,stock) -> rows.add(id+":"+name+":"+stock));
+            assertEquals(query("ORDER BY BOOK_STOCK DESC, BOOK_ID DESC LIMIT "+k),rows,"k = "+k);
+        }
+    }
+
+    @Test void changesAreVisibleInTheOrdering() throws SQLException {
+        fill(100);
+        Random random = new Random(7);
+        for (int i = 0; i<100; i++) {
+            long id = 1+random.nextInt(100);
+            int change = random.nextInt(3);
+            if (change==0) {
+                int stock = random.nextInt(100)-50;
+                replica.updateStock(id,stock);
+                execute("UPDATE Books SET BOOK_STOCK = "+stock+" WHERE BOOK_ID = "+id);
+            } else if (change==1) {
+                String name = "n"+random.nextInt(20);
+                replica.updateName(id,name);
+                execute("UPDATE Books SET BOOK_NAME = '"+name+"' WHERE BOOK_ID = "+id);
+            } else {
+                replica.delete(id);
+                execute("DELETE FROM Books WHERE BOOK_ID = "+id);
+            }
+            //the permutations are changed by every write, check them after each one
+            assertEquals(query("ORDER BY BOOK_STOCK, BOOK_ID"),ordered("BOOK_STOCK",false));
+        }
+        assertEquals(query("ORDER BY BOOK_NAME, BOOK_ID"),ordered("BOOK_NAME",false));
+    }
+
+    @Test void unusedNamesLeaveTheDictionary() {
+        replica.insert(1,"shared",1);
+        replica.insert(2,"shared",2);
+        for (int i = 0; i<1000; i++) {
+            replica.updateName(1,"renamed "+i);
+        }
+        assertEquals(2,replica.distinctNames());
+        replica.updateName(2,"renamed 999");
+        assertEquals(1,replica.distinctNames());
+        replica.delete(1);
+        replica.delete(2);
+        assertEquals(0,replica.distinctNames());
+        //a freed code is reused for a new name
+        replica.insert(3,"new",1);
+        replica.insert(4,null,1);
+        assertEquals(List.of("4:null:1","3:new:1"),ordered("BOOK_NAME",false));
+    }
+
+    @Test void insertBeforeExistingRowsKeepsTheOrders() throws SQLException {
+        fill(50);
+        //ids out of order move the rows after them, the permutations must follow
+        replica.delete(20);
+        execute("DELETE FROM Books WHERE BOOK_ID = 20");
+        replica.insert(20,"book1",-5);
+        execute("INSERT INTO Books VALUES (20, 'book1', -5)");
+        assertEquals(query("ORDER BY BOOK_STOCK, BOOK_ID"),ordered("BOOK_STOCK",false));
+        assertEquals(query("ORDER BY BOOK_NAME, BOOK_ID"),ordered("BOOK_NAME",false));
+    }
+
+    @Test void changesAreAppliedInSequenceOrder() {
+        long insert = replica.nextSequence();
+        long failed = replica.nextSequence();
+        long rename = replica.nextSequence();
+        //the rename arrives first, but must wait for the insert it depends on
+        replica.apply(rename,() -> replica.updateName(1,"renamed"));
+        assertEquals(0,replica.size());
+        replica.apply(insert,() -> replica.insert(1,"new",1));
+        assertEquals(List.of("1:new:1"),ordered("BOOK_ID",false));
+        //a failed commit still hands its number in, so the ones after it don't wait forever
+        replica.apply(failed,null);
+        assertEquals(List.of("1:renamed:1"),ordered("BOOK_ID",false));
+    }
+
+    @Test void visitByIdFindsOnlyExistingRows() {
+        replica.insert(1,"a",3);
+        List<String> rows = new ArrayList<>();
+        assertTrue(replica.visitById(1,(id,name,stock) -> rows.add(id+":"+name+":"+stock)));
+        assertFalse(replica.visitById(2,(id,name,stock) -> rows.add("unexpected")));
+        assertEquals(List.of("1:a:3"),rows);
+    }
+
+    @Test void writersDontWaitForAVisitor() throws InterruptedException {
+        replica.insert(1,"a",3);
+        replica.insert(2,"b",4);
+        List<String> rows = new ArrayList<>();
+        replica.forEachOrdered("BOOK_STOCK",false,(id,name,stock) -> {
+            //a visitor, which waits for a writer of the same replica, must not block it
+            Thread writer = new Thread(() -> replica.updateStock(id,stock+10));
+            writer.start();
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse(writer.isAlive(),"writer is blocked by the visitor");
+            rows.add(id+":"+name+":"+stock);
+        });
+        //the visitor sees the rows as they were, when the read started
+        assertEquals(List.of("1:a:3","2:b:4"),rows);
+        assertEquals(List.of("1:a:13","2:b:14"),ordered("BOOK_ID",false));
+    }
+
+    //random rows with repeated names and stocks, negative stocks and a NULL name
+    private void fill(int count) throws SQLException {
+        Random random = new Random(42);
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO Books VALUES (?, ?, ?)")) {
+            for (long id = 1; id<=count; id++) {
+                String name = id==3 ? null : "book"+random.nextInt(count/4+1);
+                int stock = random.nextInt(200)-100;
+                replica.insert(id,name,stock);
+                insert.setLong(1,id);
+                insert.setString(2,name);
+                insert.setInt(3,stock);
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    private List<String> ordered(String column, boolean descending) {
+        List<String> rows = new ArrayList<>();
+        replica.forEachOrdered(column,descending,(id,name,stock) -> rows.add(id+":"+name+":"+stock));
+        return rows;
+    }
+
+    private List<String> query(String clause) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT * FROM Books "+clause)) {
+            while (result.next()) {
+                rows.add(result.getLong(1)+":"+result.getString(2)+":"+result.getInt(3));
+            }
+        }
+        return rows;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+import java.sql.SQLException;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * The write paths of Database must invalidate the book cache after they commit,
+ *  otherwise showEntryIfIdExists would print the old values.
+ * Edits and deletes of a cached entry take the fast path - a native update by id without loading the book.
+ */
+class DatabaseCacheTest {
+    private final Database database = SharedDatabase.DATABASE;
+    private String table;
+
+    @BeforeEach void setUp() {
+        table = SharedDatabase.newTable();
+        database.setCurrentTable(table);
+        assertTrue(database.insertEntry("first",1));
+        assertTrue(database.insertEntry("second",2));
+    }
+
+    @Test void secondReadIsAHit() {
+        assertEquals(row(1,"first",1),show(1));
+        assertEquals(row(1,"first",1),show(1));
+        assertEquals(statistics(table,1,1,1),statisticsRow());
+    }
+
+    @Test void editNameOfACachedEntry() throws SQLException {
+        show(1);
+        assertTrue(database.editEntryNameById("renamed",1));
+        assertEquals(row(1,"renamed",1),show(1));
+        assertEquals(List.of("1:renamed:1","2:second:2"),SharedDatabase.rows(table));
+        //the read after the edit was a miss - the entry was invalidated
+        assertEquals(statistics(table,1,0,2),statisticsRow());
+    }
+
+    @Test void editStockOfACachedEntry() throws SQLException {
+        show(2);
+        assertTrue(database.editEntryStockById(20,2));
+        assertEquals(row(2,"second",20),show(2));
+        assertEquals(List.of("1:first:1","2:second:20"),SharedDatabase.rows(table));
+    }
+
+    @Test void editOfAnEntryWhichIsNotCached() throws SQLException {
+        assertTrue(database.editEntryStockById(10,1));
+        assertEquals(row(1,"first",10),show(1));
+        assertEquals(List.of("1:first:10","2:second:2"),SharedDatabase.rows(table));
+    }
+
+    @Test void deleteOfACachedEntry() throws SQLException {
+        show(1);
+        assertTrue(database.deleteEntryById(1));
+        assertEquals("Entry not found",show(1));
+        assertEquals(List.of("2:second:2"),SharedDatabase.rows(table));
+    }
+
+    @Test void fastPathReportsRowsDeletedBehindTheCache() throws SQLException {
+        show(1);
+        SharedDatabase.execute("DELETE FROM "+table+" WHERE BOOK_ID = 1");
+        //the cache still has the entry, but the native update finds no row
+        assertFalse(database.editEntryStockById(5,1));
+        assertFalse(database.deleteEntryById(1));
+        assertEquals("Entry not found",show(1));
+    }
+
+    @Test void sameIdInAnotherTableIsNotInvalidated() {
+        String other = SharedDatabase.newTable();
+        database.setCurrentTable(other);
+        assertTrue(database.insertEntry("other",7));
+        show(1);
+        database.setCurrentTable(table);
+        show(1);
+        assertTrue(database.editEntryStockById(3,1));
+        database.setCurrentTable(other);
+        assertEquals(row(1,"other",7),show(1));
+        assertEquals(statistics(other,1,1,1),statisticsRow());
+    }
+
+    @Test void batchCommitInvalidatesChangedEntries() throws Exception {
+        show(1);
+        show(2);
+        Database.Batch batch = database.beginBatch();
+        batch.useTable(table);
+        batch.editEntryStockById(11,1);
+        batch.deleteEntryById(2);
+        batch.commit();
+        database.setCurrentTable(table);
+        assertEquals(row(1,"first",11),show(1));
+        assertEquals("Entry not found",show(2));
+    }
+
+    @Test void batchRollbackKeepsTheCache() throws Exception {
+        show(1);
+        Database.Batch batch = database.beginBatch();
+        batch.useTable(table);
+        batch.editEntryNameById("not committed",1);
+        batch.rollback();
+        assertEquals(row(1,"first",1),show(1));
+        assertEquals(statistics(table,1,1,1),statisticsRow());
+    }
+
+    @Test void deleteSelectedTableDropsItsRegion() {
+        show(1);
+        assertTrue(statisticsRow().startsWith("|"+table));
+        assertTrue(database.deleteSelectedTable());
+        assertEquals("",statisticsRow());
+    }
+
+    //the printed entry or message, without the sql lines
+    private String show(int id) {
+        String output = SharedDatabase.output(() -> database.showEntryIfIdExists(id));
+        for (String line: output.split(System.lineSeparator())) {
+            if (line.startsWith("| ") || line.equals("Entry not found")) {
+                return line;
+            }
+        }
+        return output;
+    }
+
+    //the statistics row of the current table, or "" if it has no region
+    private String statisticsRow() {
+        String prefix = String.format("|%-20s|",database.getCurrentTable());
+        String output = SharedDatabase.output(database::showCacheStatistics);
+        for (String line: output.split(System.lineSeparator())) {
+            if (line.startsWith(prefix)) {
+                return line;
+            }
+        }
+        return "";
+    }
+
+    private static String row(long id, String name, int stock) {
+        return String.format("| %d | %-10s | %-5d |",id,name,stock);
+    }
+
+    private static String statistics(String table, int entries, int hits, int misses) {
+        return String.format("|%-20s|%-8d|%-10d|%-10d|%7.2f%%|",table,entries,hits,misses,100.0*hits/(hits+misses));
+    }
+}
@@ -0,0 +1,66 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Database is a singleton - getDatabase() returns null after the first call,
+ *  so all test classes share this instance. Every test creates its own tables.
+ */
+final class SharedDatabase {
+    static final Database DATABASE = Database.getDatabase();
+
+    private SharedDatabase() {
+    }
+
+    static String newTable() {
+        String tableName = DATABASE.addTable();
+        assertNotNull(tableName);
+        return tableName;
+    }
+
+    //rows of the table as "id:name:stock" ordered by id, read with plain JDBC from the same in-memory H2
+    static List<String> rows(String tableName) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery("SELECT * FROM "+tableName+" ORDER BY BOOK_ID")) {
+            while (result.next()) {
+                rows.add(result.getLong(1)+":"+result.getString(2)+":"+result.getInt(3));
+            }
+        }
+        return rows;
+    }
+
+    static void execute(String sql) throws SQLException {
+        try (Connection connection = connect();
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    //everything the action prints to System.out
+    static String output(Runnable action) {
+        PrintStream out = System.out;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(buffer));
+        try {
+            action.run();
+        } finally {
+            System.setOut(out);
+        }
+        return buffer.toString();
+    }
+
+    private static Connection connect() throws SQLException {
+        assertNotNull(DATABASE,"the database was created outside of SharedDatabase");
+        return DriverManager.getConnection("jdbc:h2:mem:testdb","sa","");
+    }
+}